@@ -24,10 +24,13 @@ import net.atos.entng.support.controllers.CommentController;
 import net.atos.entng.support.controllers.DisplayController;
 import net.atos.entng.support.controllers.TicketController;
 import net.atos.entng.support.enums.BugTracker;
+import net.atos.entng.support.events.SearchResultCache;
 import net.atos.entng.support.events.SupportSearchingEvents;
 import net.atos.entng.support.services.EscalationService;
+import net.atos.entng.support.services.TicketServiceNeo4j;
 import net.atos.entng.support.services.TicketServiceSql;
 import net.atos.entng.support.services.UserService;
+import net.atos.entng.support.services.impl.TicketServiceNeo4jImpl;
 import net.atos.entng.support.services.impl.TicketServiceSqlImpl;
 import net.atos.entng.support.services.impl.UserServiceDirectoryImpl;
 
@@ -57,6 +60,9 @@ public class Support extends BaseServer {
 
 		TicketServiceSql ticketServiceSql = new TicketServiceSqlImpl(bugTrackerType);
 		UserService userService = new UserServiceDirectoryImpl(eb);
+		// Profiles of tickets' owners are cached, so that listing tickets does not query neo4j each time
+		TicketServiceNeo4j ticketServiceNeo4j = new TicketServiceNeo4jImpl(config.getInteger("profile-cache-size", 10000),
+				config.getLong("profile-cache-ttl", 60));
 
         // Indicates if the user can have direct communication with redmine, or if the admin has to transfer the informations.
         bugTrackerCommDirect = config.getBoolean("bug-tracker-comm-direct", true);
@@ -68,21 +74,23 @@ public class Support extends BaseServer {
 		EscalationService escalationService = escalationActivated ?
 				EscalationServiceFactory.makeEscalationService(bugTrackerType, vertx, container, ticketServiceSql, userService, storage) : null;
 
-        TicketController ticketController = new TicketController(ticketServiceSql, escalationService, userService, storage);
+        TicketController ticketController = new TicketController(ticketServiceSql, ticketServiceNeo4j, escalationService, userService, storage);
 		addController(ticketController);
 
 		SqlConf commentSqlConf = SqlConfs.createConf(CommentController.class.getName());
 		commentSqlConf.setTable("comments");
 		commentSqlConf.setSchema("support");
-		CommentController commentController = new CommentController();
+		CommentController commentController = new CommentController(ticketServiceSql);
 		addController(commentController);
 
-		AttachmentController attachmentController = new AttachmentController();
+		AttachmentController attachmentController = new AttachmentController(ticketServiceSql);
 		addController(attachmentController);
 
 		//suscribe to search engine
 		if (config.getBoolean("searching-event", true)) {
-			setSearchingEvents(new SupportSearchingEvents());
+			SearchResultCache.getInstance().init(eb, config.getInteger("search-cache-size", 1000),
+					config.getLong("search-cache-ttl", 60));
+			setSearchingEvents(new SupportSearchingEvents(ticketServiceNeo4j));
 		}
 	}
 
@@ -22,10 +22,12 @@ package net.atos.entng.support.controllers;
 import static org.entcore.common.http.response.DefaultResponseHandler.arrayResponseHandler;
 import net.atos.entng.support.filters.OwnerOrLocalAdmin;
 import net.atos.entng.support.services.AttachmentService;
+import net.atos.entng.support.services.TicketServiceSql;
 import net.atos.entng.support.services.impl.AttachmentServiceSqlImpl;
 
 import org.entcore.common.controller.ControllerHelper;
 import org.entcore.common.http.filter.ResourceFilter;
+import org.vertx.java.core.Handler;
 import org.vertx.java.core.http.HttpServerRequest;
 
 import fr.wseduc.rs.ApiDoc;
@@ -36,10 +38,12 @@ import fr.wseduc.security.SecuredAction;
 public class AttachmentController extends ControllerHelper {
 
 	private AttachmentService attachmentService;
+	private final TicketServiceSql ticketServiceSql;
 
-	public AttachmentController() {
+	public AttachmentController(TicketServiceSql ticketServiceSql) {
 		attachmentService = new AttachmentServiceSqlImpl();
 		crudService = attachmentService;
+		this.ticketServiceSql = ticketServiceSql;
 	}
 
 	@Get("/ticket/:id/attachments")
@@ -48,7 +52,13 @@ public class AttachmentController extends ControllerHelper {
 	@ResourceFilter(OwnerOrLocalAdmin.class)
 	public void listTicketAttachments(final HttpServerRequest request) {
 		final String ticketId = request.params().get("id");
-		attachmentService.listTicketAttachments(ticketId, arrayResponseHandler(request));
+		ticketServiceSql.getTicketValidator(ticketId, TicketServiceSql.VALIDATOR_ATTACHMENTS,
+				ETagHelper.ifNoneMatch(request, request.uri(), new Handler<Void>() {
+					@Override
+					public void handle(Void v) {
+						attachmentService.listTicketAttachments(ticketId, arrayResponseHandler(request));
+					}
+				}));
 	}
 
 }
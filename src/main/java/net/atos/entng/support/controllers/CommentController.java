@@ -23,6 +23,7 @@ import static org.entcore.common.http.response.DefaultResponseHandler.notEmptyRe
 import static org.entcore.common.http.response.DefaultResponseHandler.arrayResponseHandler;
 import net.atos.entng.support.filters.OwnerOrLocalAdmin;
 import net.atos.entng.support.services.CommentService;
+import net.atos.entng.support.services.TicketServiceSql;
 import net.atos.entng.support.services.impl.CommentServiceSqlImpl;
 
 import org.entcore.common.controller.ControllerHelper;
@@ -43,10 +44,12 @@ import fr.wseduc.webutils.request.RequestUtils;
 public class CommentController extends ControllerHelper {
 
 	private final CommentService commentService;
+	private final TicketServiceSql ticketServiceSql;
 
-	public CommentController() {
+	public CommentController(TicketServiceSql ticketServiceSql) {
 		commentService = new CommentServiceSqlImpl();
 		crudService = commentService;
+		this.ticketServiceSql = ticketServiceSql;
 	}
 
 	@Put("comment/:id")
@@ -70,7 +73,13 @@ public class CommentController extends ControllerHelper {
 	@ResourceFilter(OwnerOrLocalAdmin.class)
 	public void listTicketComments(final HttpServerRequest request) {
 		final String ticketId = request.params().get("id");
-		commentService.listTicketComments(ticketId, arrayResponseHandler(request));
+		ticketServiceSql.getTicketValidator(ticketId, TicketServiceSql.VALIDATOR_COMMENTS,
+				ETagHelper.ifNoneMatch(request, request.uri(), new Handler<Void>() {
+					@Override
+					public void handle(Void v) {
+						commentService.listTicketComments(ticketId, arrayResponseHandler(request));
+					}
+				}));
 	}
 
 
@@ -0,0 +1,107 @@
+/*
+ * Copyright © Région Nord Pas de Calais-Picardie,  Département 91, Région Aquitaine-Limousin-Poitou-Charentes, 2016.
+ *
+ * This file is part of OPEN ENT NG. OPEN ENT NG is a versatile ENT Project based on the JVM and ENT Core Project.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation (version 3 of the License).
+ *
+ * For the sake of explanation, any module that communicate over native
+ * Web protocols, such as HTTP, with OPEN ENT NG is outside the scope of this
+ * license and could be license under its own terms. This is merely considered
+ * normal use of OPEN ENT NG, and does not fall under the heading of "covered work".
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+package net.atos.entng.support.controllers;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.http.HttpServerRequest;
+import org.vertx.java.core.json.JsonObject;
+import org.vertx.java.core.logging.Logger;
+import org.vertx.java.core.logging.impl.LoggerFactory;
+
+import fr.wseduc.webutils.Either;
+
+/**
+ * Conditional GET : an ETag is computed from a cheap validator (count, last modification date...) of the requested data,
+ * so that the data is neither queried nor serialized when the client already has it.
+ */
+final class ETagHelper {
+
+	private static final Logger log = LoggerFactory.getLogger(ETagHelper.class);
+
+	private ETagHelper() {
+	}
+
+	/**
+	 * @param key : identifies the requested data, in addition to the validator (e.g. user id and request uri)
+	 * @param render : called when data must be sent. Header "ETag" is then already set
+	 * @return a handler receiving the validator. It answers "304 Not Modified" if header "If-None-Match" matches the ETag,
+	 * and calls render otherwise (including when the validator could not be computed)
+	 */
+	static Handler<Either<String, JsonObject>> ifNoneMatch(final HttpServerRequest request, final String key,
+			final Handler<Void> render) {
+		return new Handler<Either<String, JsonObject>>() {
+			@Override
+			public void handle(Either<String, JsonObject> event) {
+				if (event.isRight() && event.right().getValue() != null) {
+					String etag = computeETag(key, event.right().getValue());
+					if (etag != null) {
+						request.response().putHeader("ETag", etag);
+						// responses depend on the current user : they must not be shared by caches, and must be revalidated
+						request.response().putHeader("Cache-Control", "private, no-cache");
+						if (matches(request.headers().get("If-None-Match"), etag)) {
+							request.response().setStatusCode(304).end();
+							return;
+						}
+					}
+				} else if (event.isLeft()) {
+					log.error("Error when computing validator : " + event.left().getValue());
+				}
+				render.handle(null);
+			}
+		};
+	}
+
+	private static String computeETag(String key, JsonObject validator) {
+		try {
+			MessageDigest md = MessageDigest.getInstance("MD5");
+			md.update(key.getBytes("UTF-8"));
+			md.update(validator.encode().getBytes("UTF-8"));
+			StringBuilder sb = new StringBuilder("\"");
+			for (byte b : md.digest()) {
+				sb.append(String.format("%02x", b));
+			}
+			return sb.append("\"").toString();
+		} catch (NoSuchAlgorithmException | UnsupportedEncodingException e) {
+			log.error("Error when computing ETag", e);
+			return null;
+		}
+	}
+
+	private static boolean matches(String ifNoneMatch, String etag) {
+		if (ifNoneMatch == null) {
+			return false;
+		}
+		for (String candidate : ifNoneMatch.split(",")) {
+			candidate = candidate.trim();
+			if (candidate.startsWith("W/")) {
+				candidate = candidate.substring(2);
+			}
+			if ("*".equals(candidate) || etag.equals(candidate)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+}
@@ -23,19 +23,24 @@ import static net.atos.entng.support.Support.SUPPORT_NAME;
 import static net.atos.entng.support.Support.bugTrackerCommDirect;
 import static net.atos.entng.support.enums.TicketStatus.*;
 import static org.entcore.common.http.response.DefaultResponseHandler.arrayResponseHandler;
+import static org.entcore.common.http.response.DefaultResponseHandler.notEmptyResponseHandler;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.xml.bind.DatatypeConverter;
 
 import net.atos.entng.support.Support;
 import net.atos.entng.support.filters.Admin;
 import net.atos.entng.support.filters.OwnerOrLocalAdmin;
 import net.atos.entng.support.services.EscalationService;
+import net.atos.entng.support.services.TicketServiceNeo4j;
 import net.atos.entng.support.services.TicketServiceSql;
 import net.atos.entng.support.services.UserService;
 
-import net.atos.entng.support.services.impl.TicketServiceNeo4jImpl;
 import org.entcore.common.controller.ControllerHelper;
 import org.entcore.common.http.filter.ResourceFilter;
 import org.entcore.common.storage.Storage;
@@ -46,6 +51,7 @@ import org.vertx.java.core.Handler;
 import org.vertx.java.core.Vertx;
 import org.vertx.java.core.buffer.Buffer;
 import org.vertx.java.core.http.HttpServerRequest;
+import org.vertx.java.core.http.HttpServerResponse;
 import org.vertx.java.core.http.RouteMatcher;
 import org.vertx.java.core.json.JsonArray;
 import org.vertx.java.core.json.JsonObject;
@@ -67,14 +73,20 @@ public class TicketController extends ControllerHelper {
     private static final String TICKET_CREATED_EVENT_TYPE = SUPPORT_NAME + "_TICKET_CREATED";
     private static final String TICKET_UPDATED_EVENT_TYPE = SUPPORT_NAME + "_TICKET_UPDATED";
     private static final int SUBJECT_LENGTH_IN_NOTIFICATION = 50;
+    private static final int MAX_PAGE_SIZE = 500;
+    private static final int STREAM_PAGE_SIZE = 200;
 
     private final TicketServiceSql ticketServiceSql;
     private final UserService userService;
     private final EscalationService escalationService;
     private final Storage storage;
+    private final TicketServiceNeo4j ticketServiceNeo4j;
+    private static final String HEADER_HOOK_TOKEN = "X-Support-Hook-Token";
+    private byte[] hookToken;
 
-    public TicketController(TicketServiceSql ts, EscalationService es, UserService us, Storage storage) {
+    public TicketController(TicketServiceSql ts, TicketServiceNeo4j tsNeo4j, EscalationService es, UserService us, Storage storage) {
         ticketServiceSql = ts;
+        ticketServiceNeo4j = tsNeo4j;
         userService = us;
         escalationService = es;
         this.storage = storage;
@@ -83,6 +95,10 @@ public class TicketController extends ControllerHelper {
     @Override
     public void init(Vertx vertx, Container container, RouteMatcher rm, Map<String, fr.wseduc.webutils.security.SecuredAction> securedActions) {
         super.init(vertx, container, rm, securedActions);
+        String token = container.config().getString("bug-tracker-hook-token", null);
+        if (token != null && !token.trim().isEmpty()) {
+            hookToken = token.getBytes(StandardCharsets.UTF_8);
+        }
     }
 
     @Post("/ticket")
@@ -297,6 +313,58 @@ public class TicketController extends ControllerHelper {
         });
     }
 
+    @Get("/ticket/:id")
+    @ApiDoc("Get a ticket, including its whole description")
+    @SecuredAction(value = "support.manager", type = ActionType.RESOURCE)
+    @ResourceFilter(OwnerOrLocalAdmin.class)
+    public void getTicket(final HttpServerRequest request) {
+        final String ticketId = request.params().get("id");
+        ticketServiceSql.getTicket(ticketId, notEmptyResponseHandler(request));
+    }
+
+    @Get("/ticket/:id/full")
+    @ApiDoc("Get a ticket with its comments, attachments, events, bug tracker issue and the profile of its owner")
+    @SecuredAction(value = "support.manager", type = ActionType.RESOURCE)
+    @ResourceFilter(OwnerOrLocalAdmin.class)
+    public void getTicketDetails(final HttpServerRequest request) {
+        final String ticketId = request.params().get("id");
+        final Handler<Void> render = new Handler<Void>() {
+            @Override
+            public void handle(Void v) {
+                ticketServiceSql.getTicketDetails(ticketId, new Handler<Either<String, JsonObject>>() {
+                    @Override
+                    public void handle(Either<String, JsonObject> event) {
+                        if (event.isLeft()) {
+                            renderError(request, new JsonObject().putString("error", event.left().getValue()));
+                        } else if (event.right().getValue().size() == 0) {
+                            notFound(request);
+                        } else {
+                            addProfiles(request, new JsonArray().addObject(event.right().getValue()), new Handler<JsonArray>() {
+                                @Override
+                                public void handle(JsonArray tickets) {
+                                    renderJson(request, tickets.<JsonObject>get(0));
+                                }
+                            });
+                        }
+                    }
+                });
+            }
+        };
+        // The profile of the owner is not part of the validator : it rarely changes, and is refreshed with the ticket
+        final Handler<Either<String, JsonObject>> ifNoneMatch = ETagHelper.ifNoneMatch(request, request.uri(), render);
+        ticketServiceSql.getTicketValidator(ticketId, TicketServiceSql.VALIDATOR_DETAILS,
+                new Handler<Either<String, JsonObject>>() {
+                    @Override
+                    public void handle(Either<String, JsonObject> event) {
+                        if (event.isRight() && event.right().getValue().size() == 0) {
+                            notFound(request);
+                        } else {
+                            ifNoneMatch.handle(event);
+                        }
+                    }
+                });
+    }
+
     @Post("/ticketstatus/:newStatus")
     @ApiDoc("Update multiple ticket status")
     @ResourceFilter(OwnerOrLocalAdmin.class)
@@ -396,62 +464,59 @@ public class TicketController extends ControllerHelper {
 
 
     @Get("/tickets")
-    @ApiDoc("If current user is local admin, get all tickets. Otherwise, get my tickets")
+    @ApiDoc("If current user is local admin, get all tickets. Otherwise, get my tickets. " +
+            "Optional parameters : status, category, school_id (repeatable), from and to (bounds on last modification date), " +
+            "limit, cursor_modified and cursor_id (modified and id of the last ticket of previous page), " +
+            "fields (summary : do not return the description of tickets)")
     @SecuredAction("support.ticket.list")
     public void listTickets(final HttpServerRequest request) {
+        final JsonObject filters = getListFilters(request);
+        if (filters == null) {
+            badRequest(request, "support.error.invalid.list.parameters");
+            return;
+        }
         UserUtils.getUserInfos(eb, request, new Handler<UserInfos>() {
             @Override
             public void handle(final UserInfos user) {
                 if (user != null) {
                     Map<String, UserInfos.Function> functions = user.getFunctions();
-                    if (functions.containsKey(DefaultFunctions.ADMIN_LOCAL) || functions.containsKey(DefaultFunctions.SUPER_ADMIN)) {
-                        ticketServiceSql.listTickets(user, new Handler<Either<String, JsonArray>>() {
-                            @Override
-                            public void handle(Either<String, JsonArray> event) {
-                                // getting the profile for users
-                                if( event.isRight()){
-                                    final JsonArray jsonListTickets = event.right().getValue();
-                                    final JsonArray listUserIds = new JsonArray();
-                                    // get list of unique user ids
-                                    for (Object ticket : jsonListTickets) {
-                                        if (!(ticket instanceof JsonObject)) continue;
-                                        String userId = ((JsonObject) ticket).getString("owner");
-                                        if( !listUserIds.contains(userId)){
-                                            listUserIds.addString(userId);
-                                        }
-                                    }
-                                    // get profiles from neo4j
-                                    TicketServiceNeo4jImpl ticketServiceNeo4j = new TicketServiceNeo4jImpl();
-                                    ticketServiceNeo4j.getUsersFromList(listUserIds, new Handler<Either<String, JsonArray>>() {
-                                        @Override
-                                        public void handle(Either<String, JsonArray> event) {
-                                            if( event.isRight()){
-                                                JsonArray listUsers = event.right().getValue();
-                                                // list of users got from neo4j
-                                                for( Object user : listUsers ) {
-                                                    if (!(user instanceof JsonObject)) continue;
-                                                    JsonObject jUser = (JsonObject)user;
-                                                    // traduction porfil
-                                                    String profil = jUser.getArray("n.profiles").get(0).toString();
-                                                    profil = I18n.getInstance().translate(profil, getHost(request), I18n.acceptLanguage(request));
-                                                    // iterator on tickets, to see if the ids match
-                                                    for( Object ticket : jsonListTickets) {
-                                                        if (!(ticket instanceof JsonObject)) continue;
-                                                        JsonObject jTicket = (JsonObject)ticket;
-                                                        if( jTicket.getString("owner").equals(jUser.getString("n.id"))) {
-                                                            jTicket.putString("profile", profil);
-                                                        }
-                                                    }
+                    final boolean isAdmin = functions.containsKey(DefaultFunctions.ADMIN_LOCAL) || functions.containsKey(DefaultFunctions.SUPER_ADMIN);
+                    // a streamed listing is not paginated : its validator would be as costly as the listing itself
+                    if ("true".equals(request.params().get("stream"))) {
+                        streamTickets(request, user, filters, isAdmin);
+                        return;
+                    }
+                    final Handler<Void> render = new Handler<Void>() {
+                        @Override
+                        public void handle(Void v) {
+                            if (isAdmin) {
+                                ticketServiceSql.listTickets(user, filters, new Handler<Either<String, JsonArray>>() {
+                                    @Override
+                                    public void handle(Either<String, JsonArray> event) {
+                                        if (event.isRight()) {
+                                            // getting the profile for users
+                                            addProfiles(request, event.right().getValue(), new Handler<JsonArray>() {
+                                                @Override
+                                                public void handle(JsonArray tickets) {
+                                                    renderJson(request, tickets);
                                                 }
-                                                renderJson(request, jsonListTickets);
-                                            }
+                                            });
+                                        } else {
+                                            renderError(request, new JsonObject().putString("error", event.left().getValue()));
                                         }
-                                    });
-                                }
+                                    }
+                                });
+                            } else {
+                                ticketServiceSql.listMyTickets(user, filters, arrayResponseHandler(request));
                             }
-                        });
+                        }
+                    };
+                    // tickets are only queried and serialized if they have changed since the client's last request
+                    final String etagKey = user.getUserId() + request.uri();
+                    if (isAdmin) {
+                        ticketServiceSql.getTicketsValidator(user, filters, ETagHelper.ifNoneMatch(request, etagKey, render));
                     } else {
-                        ticketServiceSql.listMyTickets(user, arrayResponseHandler(request));
+                        ticketServiceSql.getMyTicketsValidator(user, filters, ETagHelper.ifNoneMatch(request, etagKey, render));
                     }
                 } else {
                     log.debug("User not found in session.");
@@ -462,6 +527,269 @@ public class TicketController extends ControllerHelper {
 
     }
 
+    @Get("/tickets/counters")
+    @ApiDoc("Get the number of tickets by school, status and category. Local and super administrators get the counters " +
+            "of their schools, other users the counters of their own tickets")
+    @SecuredAction("support.ticket.list")
+    public void getTicketCounters(final HttpServerRequest request) {
+        UserUtils.getUserInfos(eb, request, new Handler<UserInfos>() {
+            @Override
+            public void handle(final UserInfos user) {
+                if (user != null) {
+                    ticketServiceSql.getTicketCounters(user, arrayResponseHandler(request));
+                } else {
+                    log.debug("User not found in session.");
+                    unauthorized(request);
+                }
+            }
+        });
+    }
+
+    /**
+     * Stream tickets as a chunked JSON array. Tickets are fetched page by page with the keyset cursor,
+     * and each page is written to the response before the next one is queried, so that at most one page
+     * is held in memory whatever the size of the result.
+     * Parameter "limit" is ignored in this mode, the starting cursor is honoured.
+     */
+    private void streamTickets(final HttpServerRequest request, final UserInfos user,
+            final JsonObject filters, final boolean isAdmin) {
+        final AtomicBoolean closed = new AtomicBoolean(false);
+        request.response().closeHandler(new Handler<Void>() {
+            @Override
+            public void handle(Void event) {
+                closed.set(true);
+            }
+        });
+        filters.putNumber("limit", STREAM_PAGE_SIZE);
+        streamTicketsPage(request, user, filters, isAdmin, closed, true);
+    }
+
+    private void streamTicketsPage(final HttpServerRequest request, final UserInfos user,
+            final JsonObject filters, final boolean isAdmin, final AtomicBoolean closed, final boolean firstPage) {
+        final Handler<JsonArray> writePage = new Handler<JsonArray>() {
+            @Override
+            public void handle(JsonArray tickets) {
+                if (closed.get()) {
+                    return;
+                }
+                final HttpServerResponse response = request.response();
+                if (firstPage) {
+                    response.setChunked(true);
+                    response.putHeader("Content-Type", "application/json; charset=utf-8");
+                    response.write("[");
+                }
+                JsonObject last = null;
+                for (Object o : tickets) {
+                    if (!(o instanceof JsonObject)) continue;
+                    if (last != null || !firstPage) {
+                        response.write(",");
+                    }
+                    last = (JsonObject) o;
+                    response.write(last.encode());
+                }
+                if (tickets.size() < STREAM_PAGE_SIZE || last == null) {
+                    response.end("]");
+                    return;
+                }
+                filters.putString("cursor_modified", last.getString("modified"))
+                        .putNumber("cursor_id", last.getNumber("id"));
+                final Handler<Void> next = new Handler<Void>() {
+                    @Override
+                    public void handle(Void event) {
+                        // a drain handler is called on each drain : it must only query the next page once
+                        response.drainHandler(null);
+                        streamTicketsPage(request, user, filters, isAdmin, closed, false);
+                    }
+                };
+                if (response.writeQueueFull()) {
+                    response.drainHandler(next);
+                } else {
+                    next.handle(null);
+                }
+            }
+        };
+
+        Handler<Either<String, JsonArray>> handler = new Handler<Either<String, JsonArray>>() {
+            @Override
+            public void handle(Either<String, JsonArray> event) {
+                if (event.isRight()) {
+                    if (isAdmin) {
+                        addProfiles(request, event.right().getValue(), writePage);
+                    } else {
+                        writePage.handle(event.right().getValue());
+                    }
+                } else if (firstPage) {
+                    renderError(request, new JsonObject().putString("error", event.left().getValue()));
+                } else {
+                    // headers and first rows are already sent : the response can only be aborted
+                    log.error("Error when streaming tickets : " + event.left().getValue());
+                    request.response().close();
+                }
+            }
+        };
+        if (isAdmin) {
+            ticketServiceSql.listTickets(user, filters, handler);
+        } else {
+            ticketServiceSql.listMyTickets(user, filters, handler);
+        }
+    }
+
+    /**
+     * Add field "profile" to each ticket, i.e. the translated profile of the ticket's owner.
+     * Profiles are indexed by owner id, so that tickets are browsed only once.
+     */
+    private void addProfiles(final HttpServerRequest request, final JsonArray tickets, final Handler<JsonArray> handler) {
+        // get list of unique user ids
+        final Set<String> ownerIds = new HashSet<>();
+        for (Object ticket : tickets) {
+            if (!(ticket instanceof JsonObject)) continue;
+            String userId = ((JsonObject) ticket).getString("owner");
+            if (userId != null) {
+                ownerIds.add(userId);
+            }
+        }
+        if (ownerIds.isEmpty()) {
+            handler.handle(tickets);
+            return;
+        }
+
+        // get profiles from neo4j
+        ticketServiceNeo4j.getUsersFromList(new JsonArray(new ArrayList<Object>(ownerIds)), new Handler<Either<String, JsonArray>>() {
+            @Override
+            public void handle(Either<String, JsonArray> event) {
+                if (event.isRight()) {
+                    final String host = getHost(request);
+                    final String locale = I18n.acceptLanguage(request);
+                    // key = profile, value = translated profile
+                    final Map<String, String> labels = new HashMap<>();
+                    // key = user id, value = translated profile
+                    final Map<String, String> profiles = new HashMap<>();
+
+                    for (Object user : event.right().getValue()) {
+                        if (!(user instanceof JsonObject)) continue;
+                        JsonObject jUser = (JsonObject) user;
+                        JsonArray userProfiles = jUser.getArray("n.profiles");
+                        if (userProfiles == null || userProfiles.size() == 0) continue;
+
+                        String profile = userProfiles.get(0).toString();
+                        String label = labels.get(profile);
+                        if (label == null) {
+                            label = I18n.getInstance().translate(profile, host, locale);
+                            labels.put(profile, label);
+                        }
+                        profiles.put(jUser.getString("n.id"), label);
+                    }
+
+                    for (Object ticket : tickets) {
+                        if (!(ticket instanceof JsonObject)) continue;
+                        JsonObject jTicket = (JsonObject) ticket;
+                        String profile = profiles.get(jTicket.getString("owner"));
+                        if (profile != null) {
+                            jTicket.putString("profile", profile);
+                        }
+                    }
+                } else {
+                    log.error("Error when getting profiles of tickets' owners : " + event.left().getValue());
+                }
+                handler.handle(tickets);
+            }
+        });
+    }
+
+    /**
+     * Read filters and keyset cursor of ticket listing from request parameters.
+     *
+     * @return filters to be given to listTickets and listMyTickets, or null if a parameter is invalid
+     */
+    private JsonObject getListFilters(final HttpServerRequest request) {
+        final JsonObject filters = new JsonObject();
+        try {
+            List<String> statuses = request.params().getAll("status");
+            if (statuses != null && !statuses.isEmpty()) {
+                JsonArray statusArray = new JsonArray();
+                for (String status : statuses) {
+                    statusArray.addNumber(Integer.parseInt(status));
+                }
+                filters.putArray("status", statusArray);
+            }
+
+            List<String> categories = request.params().getAll("category");
+            if (categories != null && !categories.isEmpty()) {
+                filters.putArray("category", new JsonArray(new ArrayList<Object>(categories)));
+            }
+
+            List<String> schools = request.params().getAll("school_id");
+            if (schools != null && !schools.isEmpty()) {
+                filters.putArray("school_id", new JsonArray(new ArrayList<Object>(schools)));
+            }
+
+            String from = request.params().get("from");
+            if (from != null && !from.trim().isEmpty()) {
+                if (!isValidDate(from)) {
+                    return null;
+                }
+                filters.putString("from", from);
+            }
+            String to = request.params().get("to");
+            if (to != null && !to.trim().isEmpty()) {
+                if (!isValidDate(to)) {
+                    return null;
+                }
+                filters.putString("to", to);
+            }
+
+            String fields = request.params().get("fields");
+            if (fields != null) {
+                if (!"summary".equals(fields) && !"all".equals(fields)) {
+                    return null;
+                }
+                filters.putString("fields", fields);
+            }
+
+            String limit = request.params().get("limit");
+            if (limit != null) {
+                int pageSize = Integer.parseInt(limit);
+                if (pageSize < 1) {
+                    return null;
+                }
+                filters.putNumber("limit", Math.min(pageSize, MAX_PAGE_SIZE));
+            }
+
+            String cursorModified = request.params().get("cursor_modified");
+            String cursorId = request.params().get("cursor_id");
+            if (cursorModified != null && cursorId != null) {
+                if (!isValidDate(cursorModified)) {
+                    return null;
+                }
+                filters.putString("cursor_modified", cursorModified)
+                        .putNumber("cursor_id", Long.parseLong(cursorId));
+            } else if (cursorModified != null || cursorId != null) {
+                return null;
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        return filters;
+    }
+
+    /**
+     * @return true if value is an ISO 8601 date (e.g. "2016-01-02") or date and time (e.g. "2016-01-02T10:00:00.123"),
+     * as accepted by the filters of the list of tickets
+     */
+    static boolean isValidDate(final String value) {
+        final String date = value.trim().replaceFirst(" ", "T");
+        try {
+            if (date.indexOf('T') > 0) {
+                DatatypeConverter.parseDateTime(date);
+            } else {
+                DatatypeConverter.parseDate(date);
+            }
+            return true;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
     @Get("/escalation")
     @ApiDoc("Return true if escalation is activated. False otherwise")
     @SecuredAction(value = "support.escalation.activation.status", type = ActionType.AUTHENTICATED)
@@ -474,7 +802,6 @@ public class TicketController extends ControllerHelper {
     @ApiDoc("Returns the profile of a user")
     public void getProfileString(final HttpServerRequest request) {
         final String userId = request.params().get("userId");
-        TicketServiceNeo4jImpl ticketServiceNeo4j = new TicketServiceNeo4jImpl();
         JsonArray jsonUserId = new JsonArray();
         jsonUserId.add(userId);
         ticketServiceNeo4j.getUsersFromList(jsonUserId, new Handler<Either<String, JsonArray>>() {
@@ -496,7 +823,6 @@ public class TicketController extends ControllerHelper {
     @ApiDoc("Returns the profile of a user")
     public void getUserStructures(final HttpServerRequest request) {
         final String userId = request.params().get("userId");
-        TicketServiceNeo4jImpl ticketServiceNeo4j = new TicketServiceNeo4jImpl();
         ticketServiceNeo4j.getUserStructures(userId, new Handler<Either<String, JsonArray>>() {
             @Override
             public void handle(Either<String, JsonArray> event) {
@@ -644,7 +970,37 @@ public class TicketController extends ControllerHelper {
     @SecuredAction(value = "support.escalation.activation.status", type = ActionType.AUTHENTICATED)
     public void getBugTrackerIssue(final HttpServerRequest request) {
         final String ticketId = request.params().get("id");
-        ticketServiceSql.getIssue(ticketId, arrayResponseHandler(request));
+        ticketServiceSql.getTicketValidator(ticketId, TicketServiceSql.VALIDATOR_ISSUE,
+                ETagHelper.ifNoneMatch(request, request.uri(), new Handler<Void>() {
+                    @Override
+                    public void handle(Void v) {
+                        ticketServiceSql.getIssue(ticketId, arrayResponseHandler(request));
+                    }
+                }));
+    }
+
+    @Post(value = "/bugtracker/hook/:issueId", needAuth = false)
+    @ApiDoc("Called by the bug tracker when an issue is updated : the issue is synchronized without waiting for the next pull. " +
+            "Requires header " + HEADER_HOOK_TOKEN)
+    public void bugTrackerHook(final HttpServerRequest request) {
+        if (escalationService == null || hookToken == null) {
+            notFound(request);
+            return;
+        }
+        String token = request.headers().get(HEADER_HOOK_TOKEN);
+        if (token == null || !MessageDigest.isEqual(hookToken, token.getBytes(StandardCharsets.UTF_8))) {
+            unauthorized(request);
+            return;
+        }
+        final Long issueId;
+        try {
+            issueId = Long.valueOf(request.params().get("issueId"));
+        } catch (NumberFormatException e) {
+            badRequest(request);
+            return;
+        }
+        boolean queued = escalationService.refreshIssue(issueId);
+        renderJson(request, new JsonObject().putBoolean("queued", queued), 202);
     }
 
     @Get("/gridfs/:id")
@@ -712,7 +1068,7 @@ public class TicketController extends ControllerHelper {
             public void handle(Either<String, JsonObject> response) {
                 if (response.isRight()) {
                     final JsonObject issue = response.right().getValue();
-                    ticketServiceSql.updateIssue(issueId, issue.toString(), new Handler<Either<String, JsonObject>>() {
+                    ticketServiceSql.updateIssue(issueId, issue, new Handler<Either<String, JsonObject>>() {
 
                         @Override
                         public void handle(Either<String, JsonObject> updateIssueResponse) {
@@ -754,7 +1110,13 @@ public class TicketController extends ControllerHelper {
             @Override
             public void handle(final UserInfos user) {
                 if (user != null) {
-                    ticketServiceSql.listEvents(ticketId, arrayResponseHandler(request));
+                    ticketServiceSql.getTicketValidator(ticketId, TicketServiceSql.VALIDATOR_EVENTS,
+                            ETagHelper.ifNoneMatch(request, request.uri(), new Handler<Void>() {
+                                @Override
+                                public void handle(Void v) {
+                                    ticketServiceSql.listEvents(ticketId, arrayResponseHandler(request));
+                                }
+                            }));
                 } else {
                     log.debug("User not found in session.");
                     unauthorized(request);
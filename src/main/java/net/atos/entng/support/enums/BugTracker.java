@@ -26,13 +26,22 @@ public enum BugTracker {
 
 	REDMINE {
 		@Override
-		public String getLastIssueUpdateFromPostgresqlJson() {
-			return "->'issue'->>'updated_on'";
+		public String extractUpdatedOnFromIssue(JsonObject issue) {
+			JsonObject content = getContent(issue);
+			return content != null ? content.getString("updated_on", null) : null;
 		}
 
 		@Override
-		public String getStatusIdFromPostgresqlJson() {
-			return "#>'{issue,status,id}'";
+		public Number extractStatusIdFromIssue(JsonObject issue) {
+			JsonObject content = getContent(issue);
+			JsonObject status = content != null ? content.getObject("status") : null;
+			return status != null ? status.getNumber("id") : null;
+		}
+
+		@Override
+		public String extractClosedOnFromIssue(JsonObject issue) {
+			JsonObject content = getContent(issue);
+			return content != null ? content.getString("closed_on", null) : null;
 		}
 
 		@Override
@@ -44,18 +53,31 @@ public enum BugTracker {
 		public JsonArray extractAttachmentsFromIssue(JsonObject issue) {
 			return issue.getObject("issue").getArray("attachments", null);
 		}
+
+		/**
+		 * @return field "issue", null if the issue could not be fetched from the bug tracker (empty object)
+		 */
+		private JsonObject getContent(JsonObject issue) {
+			return issue != null ? issue.getObject("issue") : null;
+		}
 	};
 
 
+
+	/**
+	 * Extract last update time (ISO 8601, UTC) from JSON object sent by the bug tracker REST API. Null if issue is empty
+	 */
+	public abstract String extractUpdatedOnFromIssue(JsonObject issue);
+
 	/**
-	 * @return SQL expression to extract last update time of bug tracker issue from JSON field stored in postgresql
+	 * Extract status id from JSON object sent by the bug tracker REST API. Null if issue is empty
 	 */
-	public abstract String getLastIssueUpdateFromPostgresqlJson();
+	public abstract Number extractStatusIdFromIssue(JsonObject issue);
 
 	/**
-	 * @return SQL expression to extract statusId of bug tracker issue from JSON field stored in postgresql
+	 * Extract closing time (ISO 8601, UTC) from JSON object sent by the bug tracker REST API. Null if issue is not closed or empty
 	 */
-	public abstract String getStatusIdFromPostgresqlJson();
+	public abstract String extractClosedOnFromIssue(JsonObject issue);
 
 	/**
 	 * Extract "id" from JSON object sent by the bug tracker REST API
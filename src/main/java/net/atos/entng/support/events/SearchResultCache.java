@@ -0,0 +1,169 @@
+/*
+ * Copyright © Région Nord Pas de Calais-Picardie,  Département 91, Région Aquitaine-Limousin-Poitou-Charentes, 2016.
+ *
+ * This file is part of OPEN ENT NG. OPEN ENT NG is a versatile ENT Project based on the JVM and ENT Core Project.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation (version 3 of the License).
+ *
+ * For the sake of explanation, any module that communicate over native
+ * Web protocols, such as HTTP, with OPEN ENT NG is outside the scope of this
+ * license and could be license under its own terms. This is merely considered
+ * normal use of OPEN ENT NG, and does not fall under the heading of "covered work".
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+package net.atos.entng.support.events;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.eventbus.EventBus;
+import org.vertx.java.core.eventbus.Message;
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+
+import fr.wseduc.webutils.Either;
+
+/**
+ * Formatted results of recent searches. Least recently used entries are evicted when cache is full,
+ * and entries older than the time to live are searched again.
+ * The whole cache is invalidated when tickets, comments or bug tracker issues are written, since results
+ * of local administrators depend on tickets of other users. Invalidations are published on the event bus, so that
+ * caches of other instances of the module are invalidated as well. Until they receive the message (or if it is lost),
+ * they may serve stale results, at most for the time to live.
+ */
+public final class SearchResultCache {
+
+	private static final SearchResultCache instance = new SearchResultCache();
+	private static final String INVALIDATION_ADDRESS = "support.search.cache.invalidate";
+
+	private volatile EventBus eb;
+
+	private volatile int maxSize = 1000;
+	private volatile long ttl = TimeUnit.MILLISECONDS.convert(60, TimeUnit.SECONDS);
+	// incremented on each invalidation, so that results of searches started before a write are not cached
+	private long generation = 0;
+
+	private final Map<String, CachedResult> results = new LinkedHashMap<String, CachedResult>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, CachedResult> eldest) {
+			return size() > maxSize;
+		}
+	};
+
+	private static final class CachedResult {
+		private final JsonArray result;
+		private final long expirationTime;
+
+		private CachedResult(JsonArray result, long expirationTime) {
+			this.result = result;
+			this.expirationTime = expirationTime;
+		}
+	}
+
+	private SearchResultCache() {
+	}
+
+	public static SearchResultCache getInstance() {
+		return instance;
+	}
+
+	/**
+	 * @param eb : event bus on which invalidations are published to, and received from, other instances
+	 * @param size : maximum number of searches whose results are kept in cache. 0 disables the cache
+	 * @param ttlInSeconds : time to live of a cache entry
+	 */
+	public void init(EventBus eb, int size, long ttlInSeconds) {
+		maxSize = size;
+		ttl = TimeUnit.MILLISECONDS.convert(ttlInSeconds, TimeUnit.SECONDS);
+		clear();
+		if (this.eb == null) {
+			eb.registerHandler(INVALIDATION_ADDRESS, new Handler<Message<JsonObject>>() {
+				@Override
+				public void handle(Message<JsonObject> message) {
+					clear();
+				}
+			});
+		}
+		this.eb = eb;
+	}
+
+	/**
+	 * @return a copy of the cached result, null if search is not in cache or has expired
+	 */
+	public JsonArray get(String key) {
+		synchronized (results) {
+			CachedResult cached = results.get(key);
+			if (cached == null) {
+				return null;
+			}
+			if (cached.expirationTime <= System.currentTimeMillis()) {
+				results.remove(key);
+				return null;
+			}
+			return cached.result.copy();
+		}
+	}
+
+	/**
+	 * @return current generation, to be read before searching and given back to put
+	 */
+	public long getGeneration() {
+		synchronized (results) {
+			return generation;
+		}
+	}
+
+	/**
+	 * Cache the result of a search, unless the cache has been invalidated since the search started
+	 */
+	public void put(String key, JsonArray result, long searchGeneration) {
+		if (maxSize <= 0) {
+			return;
+		}
+		synchronized (results) {
+			if (searchGeneration == generation) {
+				results.put(key, new CachedResult(result.copy(), System.currentTimeMillis() + ttl));
+			}
+		}
+	}
+
+	/**
+	 * Invalidate this cache, and the caches of other instances of the module
+	 */
+	public void invalidate() {
+		clear();
+		EventBus eventBus = eb;
+		if (eventBus != null) {
+			eventBus.publish(INVALIDATION_ADDRESS, new JsonObject());
+		}
+	}
+
+	private void clear() {
+		synchronized (results) {
+			results.clear();
+			generation++;
+		}
+	}
+
+	/**
+	 * @return a handler invalidating the cache when a write has been done, then calling handler
+	 */
+	public <T> Handler<Either<String, T>> invalidateAfter(final Handler<Either<String, T>> handler) {
+		return new Handler<Either<String, T>>() {
+			@Override
+			public void handle(Either<String, T> event) {
+				invalidate();
+				handler.handle(event);
+			}
+		};
+	}
+
+}
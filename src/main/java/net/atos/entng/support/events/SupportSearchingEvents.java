@@ -22,6 +22,7 @@ package net.atos.entng.support.events;
 import fr.wseduc.webutils.Either;
 import fr.wseduc.webutils.Either.Right;
 import fr.wseduc.webutils.I18n;
+import net.atos.entng.support.services.TicketServiceNeo4j;
 import org.entcore.common.search.SearchingEvents;
 import org.entcore.common.service.impl.SqlCrudService;
 import org.entcore.common.sql.Sql;
@@ -34,9 +35,12 @@ import org.vertx.java.core.logging.impl.LoggerFactory;
 
 import javax.xml.bind.DatatypeConverter;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
-
-import static org.entcore.common.sql.SqlResult.validResult;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 public class SupportSearchingEvents extends SqlCrudService implements SearchingEvents {
 
@@ -44,55 +48,115 @@ public class SupportSearchingEvents extends SqlCrudService implements SearchingE
 
 	private static final I18n i18n = I18n.getInstance();
 
-	public SupportSearchingEvents() {
+	// Words of this length or shorter are searched with the trigram index instead of full-text search
+	private static final int TRIGRAM_MAX_WORD_LENGTH = 4;
+
+	// Search vectors of tickets, comments and bug tracker journals, maintained by triggers
+	private static final String[] SEARCH_TABLES = {"support.tickets_search", "support.comments_search", "support.issues_search"};
+
+	// Maximum number of keyset cursors kept for admin searches
+	private static final int MAX_ADMIN_CURSORS = 1000;
+
+	// Maximum number of search modes kept for the pages following the first one
+	private static final int MAX_SEARCH_MODES = 1000;
+
+	// Maximum number of translated labels kept in memory
+	private static final int MAX_LABELS = 10000;
+
+	private final TicketServiceNeo4j ticketServiceNeo4j;
+
+	// Translated labels of statuses and categories : key = locale and label key
+	private final ConcurrentMap<String, String> labels = new ConcurrentHashMap<>();
+
+	/*
+	 * Keyset cursors of admin searches : key = user, search mode, words, limit and page,
+	 * value = "modified" and "id" of the last ticket of the previous page. Least recently used cursors are evicted.
+	 * The searching API only gives the page number, so cursors cannot be sent to the client : they are kept by each instance,
+	 * and a page whose cursor is not found (evicted, or previous page served by another instance) is read with an offset.
+	 */
+	private final Map<String, Cursor> adminCursors = new LinkedHashMap<String, Cursor>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Cursor> eldest) {
+			return size() > MAX_ADMIN_CURSORS;
+		}
+	};
+
+	/*
+	 * Mode of searches (true for trigram search), decided on their first page : key = user, words and limit.
+	 * Least recently used modes are evicted
+	 */
+	private final Map<String, Boolean> searchModes = new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+			return size() > MAX_SEARCH_MODES;
+		}
+	};
+
+	static final class Cursor {
+		private final String modified;
+		private final Number id;
+
+		Cursor(String modified, Number id) {
+			this.modified = modified;
+			this.id = id;
+		}
+	}
+
+	public SupportSearchingEvents(TicketServiceNeo4j ticketServiceNeo4j) {
 		super("support", "tickets");
+		this.ticketServiceNeo4j = ticketServiceNeo4j;
 	}
 
 	@Override
-	public void searchResource(List<String> appFilters, String userId, JsonArray groupIds, JsonArray searchWords, Integer page, Integer limit, final JsonArray columnsHeader,
+	public void searchResource(List<String> appFilters, final String userId, JsonArray groupIds, final JsonArray searchWords,
+			final Integer page, final Integer limit, final JsonArray columnsHeader,
 							   final String locale, final Handler<Either<String, JsonArray>> handler) {
 		if (appFilters.contains(SupportSearchingEvents.class.getSimpleName())) {
 			//fixme	for category, it's the uri of app so i need to add into core searching api the list of apps from userinfos ...
 			//hardcode only today
-			final List<String> searchFields = new ArrayList<String>();
-			searchFields.add("t.subject");
-			searchFields.add("t.description");
-
-			final String iLikeTemplate = "ILIKE ALL " + Sql.arrayPrepared(searchWords.toArray(), true);
-			final String searchWhere = " AND (" + searchWherePrepared(searchFields, iLikeTemplate) + ")";
-
-			//fixme only user tickets, perhaps add functions to searching api core for admin view
-			final StringBuilder query = new StringBuilder();
-			query.append(" SELECT t.id, t.owner, t.subject, t.description, t.modified, t.category, t.status, u.username AS owner_name")
-					.append(" FROM support.tickets AS t")
-					.append(" INNER JOIN support.users AS u ON t.owner = u.id")
-					.append(" WHERE t.owner = ? ").append(searchWhere)
-					.append(" ORDER BY t.modified DESC LIMIT ? OFFSET ?");
-			final JsonArray values = new JsonArray();
-			values.addString(userId);
-			final List<String> valuesWildcard = searchValuesWildcard(searchWords.toList());
-			for (int i=0;i<searchFields.size();i++) {
-				for (final String value : valuesWildcard) {
-					values.addString(value);
+			// The following pages of a search use the mode of its first page
+			final String modeKey = getModeKey(userId, searchWords, limit);
+			Boolean mode = null;
+			if (page > 0) {
+				synchronized (searchModes) {
+					mode = searchModes.get(modeKey);
 				}
 			}
+			final boolean trigram = (mode != null) ? mode : isTrigramSearch(searchWords);
 
-			final int offset = page * limit;
-			values.add(limit).add(offset);
+			final SearchResultCache cache = SearchResultCache.getInstance();
+			final String cacheKey = getCacheKey(userId, searchWords, page, limit, locale) + "|" + trigram;
+			final JsonArray cached = cache.get(cacheKey);
+			if (cached != null) {
+				handler.handle(new Right<String, JsonArray>(cached));
+				return;
+			}
+			final long generation = cache.getGeneration();
 
-			Sql.getInstance().prepared(query.toString(), values, new Handler<Message<JsonObject>>() {
+			// Local administrators also search the tickets of their schools
+			ticketServiceNeo4j.getAdminLocalScopes(userId, new Handler<Either<String, JsonArray>>() {
 				@Override
-				public void handle(Message<JsonObject> event) {
-					final Either<String, JsonArray> ei = validResult(event);
-					if (ei.isRight()) {
-						final JsonArray res = formatSearchResult(ei.right().getValue(), columnsHeader, locale);
-						handler.handle(new Right<String, JsonArray>(res));
-						if (log.isDebugEnabled()) {
-							log.debug("[SupportSearchingEvents][searchResource] The resources searched by user are finded");
+				public void handle(Either<String, JsonArray> event) {
+					List<String> schools = null;
+					if (event.isRight()) {
+						schools = new ArrayList<>();
+						for (Object o : event.right().getValue()) {
+							if (!(o instanceof JsonObject)) continue;
+							JsonArray scope = ((JsonObject) o).getArray("scope");
+							if (scope == null) continue;
+							for (Object school : scope) {
+								if (school != null && !schools.contains(school.toString())) {
+									schools.add(school.toString());
+								}
+							}
+						}
+						if (schools.isEmpty()) {
+							schools = null;
 						}
 					} else {
-						handler.handle(new Either.Left<String, JsonArray>(ei.left().getValue()));
+						log.error("[SupportSearchingEvents][searchResource] Error when getting scopes of user : " + event.left().getValue());
 					}
+					search(trigram, userId, schools, searchWords, page, limit, columnsHeader, locale, cacheKey, modeKey, generation, handler);
 				}
 			});
 		} else {
@@ -100,24 +164,264 @@ public class SupportSearchingEvents extends SqlCrudService implements SearchingE
 		}
 	}
 
-	private JsonArray formatSearchResult(final JsonArray results, final JsonArray columnsHeader, String locale) {
+	/**
+	 * Short words are likely to be fragments of words, which are not matched by full-text search
+	 * @return true if the words must be searched with the trigram index
+	 */
+	static boolean isTrigramSearch(JsonArray searchWords) {
+		for (Object word : searchWords) {
+			if (word.toString().length() <= TRIGRAM_MAX_WORD_LENGTH) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * A full-text search is replayed as a trigram search only when its first page is empty : an empty following page
+	 * is the end of the results, and replaying it would return rows unrelated to the previous pages
+	 */
+	static boolean isTrigramFallback(boolean trigram, int page, int resultCount) {
+		return !trigram && page == 0 && resultCount == 0;
+	}
+
+	/**
+	 * @param trigram : if true, search words as substrings of subject or description (GIN trigram index),
+	 * use full-text search on tickets, comments and bug tracker journals otherwise (GIN indexes on SEARCH_TABLES).
+	 * A full-text search whose first page is empty is replayed as a trigram search, since words may be incomplete.
+	 * The mode of the first page is kept for the following ones
+	 * @param schools : schools of a local administrator, null for other users. Tickets of these schools are searched
+	 * too, sorted by modification date and paginated with keyset cursors, see buildSearchQuery.
+	 * Tickets of other users are sorted by rank (full-text search) or modification date (trigram search).
+	 */
+	private void search(final boolean trigram, final String userId, final List<String> schools, final JsonArray searchWords,
+			final Integer page, final Integer limit, final JsonArray columnsHeader, final String locale,
+			final String cacheKey, final String modeKey, final long generation, final Handler<Either<String, JsonArray>> handler) {
+		final StringBuilder words = new StringBuilder();
+		for (Object word : searchWords) {
+			words.append(word).append(" ");
+		}
+		final String cursorKey = userId + "|" + trigram + "|" + limit + "|" + words;
+		Cursor cursor = null;
+		if (schools != null) {
+			synchronized (adminCursors) {
+				cursor = adminCursors.get(cursorKey + "|" + page);
+			}
+		}
+		final JsonArray values = new JsonArray();
+		final String query = buildSearchQuery(trigram, userId, schools, searchWords, page, limit, cursor, values);
+
+		Sql.getInstance().prepared(query, values, new Handler<Message<JsonObject>>() {
+			@Override
+			public void handle(Message<JsonObject> event) {
+				final JsonObject body = event.body();
+				if ("ok".equals(body.getString("status"))) {
+					final JsonArray fields = body.getArray("fields");
+					final JsonArray results = body.getArray("results");
+					if (isTrigramFallback(trigram, page, results != null ? results.size() : 0)) {
+						search(true, userId, schools, searchWords, page, limit, columnsHeader, locale, cacheKey, modeKey, generation, handler);
+						return;
+					}
+					if (page == 0) {
+						synchronized (searchModes) {
+							searchModes.put(modeKey, trigram);
+						}
+					}
+					if (schools != null && results.size() == limit) {
+						final List<Object> fieldNames = fields.toList();
+						final JsonArray last = results.get(results.size() - 1);
+						synchronized (adminCursors) {
+							adminCursors.put(cursorKey + "|" + (page + 1), new Cursor(
+									(String) last.get(fieldNames.indexOf("modified")), (Number) last.get(fieldNames.indexOf("id"))));
+						}
+					}
+					// rows are formatted straight from the raw result, without building an intermediate array of objects.
+					// They are not streamed : the searching API replies with the whole page over the event bus,
+					// and the size of the page is bounded by "limit"
+					final JsonArray res = formatSearchResult(fields, results, columnsHeader, locale);
+					SearchResultCache.getInstance().put(cacheKey, res, generation);
+					handler.handle(new Right<String, JsonArray>(res));
+					if (log.isDebugEnabled()) {
+						log.debug("[SupportSearchingEvents][searchResource] The resources searched by user are finded");
+					}
+				} else {
+					handler.handle(new Either.Left<String, JsonArray>(body.getString("message", "")));
+				}
+			}
+		});
+	}
+
+	/**
+	 * Build the query of a page of a search.
+	 * The tickets of a local administrator are searched with one branch per school and one branch for his own tickets
+	 * in other schools : each branch is read in order from index tickets_school_id_modified_idx or tickets_owner_modified_idx,
+	 * and only the first rows of the branches are merged and sorted.
+	 * @param cursor : "modified" and "id" of the last ticket of the previous page of a local administrator, null to use an offset
+	 * @param values : receives the values of the query
+	 */
+	static String buildSearchQuery(final boolean trigram, final String userId, final List<String> schools,
+			final JsonArray searchWords, final int page, final int limit, final Cursor cursor, final JsonArray values) {
+		final StringBuilder query = new StringBuilder();
+		if (!trigram) {
+			final StringBuilder words = new StringBuilder();
+			for (Object word : searchWords) {
+				words.append(word).append(" ");
+			}
+			// Tickets whose subject, description, comments or bug tracker journals match. A ticket is ranked by its best match
+			query.append("WITH m AS (SELECT ticket_id, max(rank) AS rank FROM (");
+			for (int i = 0; i < SEARCH_TABLES.length; i++) {
+				if (i > 0) {
+					query.append(" UNION ALL");
+				}
+				query.append(" SELECT s.ticket_id, ts_rank(s.search_vector, q) AS rank")
+						.append(" FROM ").append(SEARCH_TABLES[i]).append(" AS s, plainto_tsquery('support.french_unaccent', ?) AS q")
+						.append(" WHERE s.search_vector @@ q");
+				values.addString(words.toString().trim());
+			}
+			query.append(") AS r GROUP BY ticket_id)");
+		}
+
+		if (schools == null) {
+			appendSearchBranch(query, trigram);
+			query.append(" WHERE t.owner = ?");
+			values.addString(userId);
+			appendSearchWords(query, values, trigram, searchWords);
+			if (trigram) {
+				query.append(" ORDER BY t.modified DESC LIMIT ? OFFSET ?");
+			} else {
+				query.append(" ORDER BY m.rank DESC, t.modified DESC LIMIT ? OFFSET ?");
+			}
+			values.addNumber(limit).addNumber(page * limit);
+			return query.toString();
+		}
+
+		// without cursor, the rows of the previous pages are read again and skipped
+		final int branchLimit = (cursor != null) ? limit : (page + 1) * limit;
+		query.append(" SELECT * FROM (");
+		for (String school : schools) {
+			query.append("(");
+			appendSearchBranch(query, trigram);
+			query.append(" WHERE t.school_id = ?");
+			values.addString(school);
+			appendSearchPage(query, values, trigram, searchWords, cursor, branchLimit);
+			query.append(") UNION ALL ");
+		}
+		query.append("(");
+		appendSearchBranch(query, trigram);
+		query.append(" WHERE t.owner = ? AND t.school_id NOT IN (");
+		values.addString(userId);
+		for (String school : schools) {
+			query.append("?,");
+			values.addString(school);
+		}
+		query.deleteCharAt(query.length() - 1);
+		query.append(")");
+		appendSearchPage(query, values, trigram, searchWords, cursor, branchLimit);
+		query.append(")) AS b ORDER BY b.modified DESC, b.id DESC LIMIT ? OFFSET ?");
+		values.addNumber(limit).addNumber((cursor != null) ? 0 : page * limit);
+		return query.toString();
+	}
+
+	private static void appendSearchBranch(final StringBuilder query, final boolean trigram) {
+		query.append(" SELECT t.id, t.owner, t.subject, t.description, t.modified, t.category, t.status, u.username AS owner_name")
+				.append(" FROM support.tickets AS t")
+				.append(" INNER JOIN support.users AS u ON t.owner = u.id");
+		if (!trigram) {
+			query.append(" INNER JOIN m ON t.id = m.ticket_id");
+		}
+	}
+
+	private static void appendSearchWords(final StringBuilder query, final JsonArray values, final boolean trigram,
+			final JsonArray searchWords) {
+		if (trigram) {
+			// expression must be the same as the one of index tickets_trgm_idx.
+			// One condition per word : the index is not used by ILIKE ALL (ARRAY[...])
+			for (Object word : searchWords) {
+				query.append(" AND support.immutable_unaccent(t.subject || ' ' || t.description) ILIKE support.immutable_unaccent(?)");
+				values.addString("%" + escapeLikePattern(word.toString()) + "%");
+			}
+		}
+	}
+
+	private static void appendSearchPage(final StringBuilder query, final JsonArray values, final boolean trigram,
+			final JsonArray searchWords, final Cursor cursor, final int branchLimit) {
+		appendSearchWords(query, values, trigram, searchWords);
+		if (cursor != null) {
+			query.append(" AND (t.modified, t.id) < (?::timestamp, ?)");
+			values.addString(cursor.modified).addNumber(cursor.id);
+		}
+		query.append(" ORDER BY t.modified DESC, t.id DESC LIMIT ?");
+		values.addNumber(branchLimit);
+	}
+
+	/**
+	 * @return key of a search in SearchResultCache. Words are lower-cased and sorted, since their order does not change the result
+	 */
+	private String getCacheKey(String userId, JsonArray searchWords, Integer page, Integer limit, String locale) {
+		final List<String> words = new ArrayList<>();
+		for (Object word : searchWords) {
+			words.add(word.toString().trim().toLowerCase());
+		}
+		Collections.sort(words);
+		final StringBuilder key = new StringBuilder(userId).append("|").append(locale)
+				.append("|").append(page).append("|").append(limit);
+		for (String word : words) {
+			key.append("|").append(word);
+		}
+		return key.toString();
+	}
+
+	/**
+	 * @return key of a search in searchModes, for all its pages
+	 */
+	private String getModeKey(String userId, JsonArray searchWords, Integer limit) {
+		final StringBuilder key = new StringBuilder(userId).append("|").append(limit);
+		for (Object word : searchWords) {
+			key.append("|").append(word.toString().trim().toLowerCase());
+		}
+		return key.toString();
+	}
+
+	private static String escapeLikePattern(String word) {
+		return word.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+	}
+
+	private JsonArray formatSearchResult(final JsonArray fields, final JsonArray results, final JsonArray columnsHeader, String locale) {
 		final List<String> aHeader = columnsHeader.toList();
 		final JsonArray traity = new JsonArray();
+		if (fields == null || results == null) {
+			return traity;
+		}
+
+		final List<Object> fieldNames = fields.toList();
+		final int idIdx = fieldNames.indexOf("id");
+		final int ownerIdx = fieldNames.indexOf("owner");
+		final int subjectIdx = fieldNames.indexOf("subject");
+		final int descriptionIdx = fieldNames.indexOf("description");
+		final int modifiedIdx = fieldNames.indexOf("modified");
+		final int categoryIdx = fieldNames.indexOf("category");
+		final int statusIdx = fieldNames.indexOf("status");
+		final int ownerNameIdx = fieldNames.indexOf("owner_name");
 
-		for (int i=0;i<results.size();i++) {
-			final JsonObject j = results.get(i);
+		for (Object o : results) {
+			if (!(o instanceof JsonArray)) continue;
+			final JsonArray row = (JsonArray) o;
+			final Object subject = row.get(subjectIdx);
+			final Object category = row.get(categoryIdx);
+			final Object status = row.get(statusIdx);
+			final Object description = row.get(descriptionIdx);
+			final Object id = row.get(idIdx);
 			final JsonObject jr = new JsonObject();
-			if (j != null) {
-				jr.putString(aHeader.get(0), formatTitle(j.getString("subject",""), j.getString("category",""),
-						j.getInteger("status",0), locale));
-				jr.putString(aHeader.get(1), j.getString("description", ""));
-				jr.putObject(aHeader.get(2), new JsonObject().putValue("$date",
-						DatatypeConverter.parseDateTime(j.getString("modified")).getTime().getTime()));
-				jr.putString(aHeader.get(3), j.getString("owner_name"));
-				jr.putString(aHeader.get(4), j.getString("owner"));
-				jr.putString(aHeader.get(5), "/support#/ticket/"+ j.getNumber("id",0));
-				traity.add(jr);
-			}
+			jr.putString(aHeader.get(0), formatTitle(subject != null ? subject.toString() : "",
+					category != null ? category.toString() : "",
+					status instanceof Number ? ((Number) status).intValue() : 0, locale));
+			jr.putString(aHeader.get(1), description != null ? description.toString() : "");
+			jr.putObject(aHeader.get(2), new JsonObject().putValue("$date",
+					DatatypeConverter.parseDateTime((String) row.get(modifiedIdx)).getTime().getTime()));
+			jr.putString(aHeader.get(3), (String) row.get(ownerNameIdx));
+			jr.putString(aHeader.get(4), (String) row.get(ownerIdx));
+			jr.putString(aHeader.get(5), "/support#/ticket/" + (id != null ? id : 0));
+			traity.add(jr);
 		}
 		return traity;
 	}
@@ -135,35 +439,35 @@ public class SupportSearchingEvents extends SqlCrudService implements SearchingE
 				break;
 		}
 
-		return i18n.translate(key, I18n.DEFAULT_DOMAIN, locale);
+		final String labelKey = locale + "|" + key;
+		String label = labels.get(labelKey);
+		if (label == null) {
+			label = i18n.translate(key, I18n.DEFAULT_DOMAIN, locale);
+			putLabel(labelKey, label);
+		}
+		return label;
 	}
 
 	private String formatCategory(String category, String locale) {
-		final String categoryRes = i18n.translate(category.replace("/", ""), I18n.DEFAULT_DOMAIN, locale);
-		return (categoryRes != null && !categoryRes.isEmpty()) ? categoryRes : i18n.translate("other", I18n.DEFAULT_DOMAIN, locale);
-	}
-
-	private String formatTitle(final String subject, final String category, final int status, final String locale) {
-		return i18n.translate("support.search.title", I18n.DEFAULT_DOMAIN, locale,
-				subject, formatCategory(category, locale), formatStatus(status, locale));
+		final String labelKey = locale + "|category|" + category;
+		String label = labels.get(labelKey);
+		if (label == null) {
+			final String categoryRes = i18n.translate(category.replace("/", ""), I18n.DEFAULT_DOMAIN, locale);
+			label = (categoryRes != null && !categoryRes.isEmpty()) ? categoryRes : i18n.translate("other", I18n.DEFAULT_DOMAIN, locale);
+			putLabel(labelKey, label);
+		}
+		return label;
 	}
 
-	private String searchWherePrepared(List<String> list, final String templateLike) {
-		StringBuilder sb = new StringBuilder();
-		if (list != null && list.size() > 0) {
-			for (String s : list) {
-				sb.append("unaccent(").append(s).append(") ").append(templateLike).append(" OR ");
-			}
-			sb.delete(sb.length() - 3, sb.length());
+	private void putLabel(String labelKey, String label) {
+		// locales come from requests : the number of labels is bounded
+		if (label != null && labels.size() < MAX_LABELS) {
+			labels.putIfAbsent(labelKey, label);
 		}
-		return sb.toString();
 	}
 
-	private List<String> searchValuesWildcard(List<String> list) {
-		final List<String> result = new ArrayList<String>();
-		for (String s : list) {
-			result.add("%" + s + "%");
-		}
-		return result;
+	private String formatTitle(final String subject, final String category, final int status, final String locale) {
+		return i18n.translate("support.search.title", I18n.DEFAULT_DOMAIN, locale,
+				subject, formatCategory(category, locale), formatStatus(status, locale));
 	}
 }
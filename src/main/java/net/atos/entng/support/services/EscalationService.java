@@ -49,6 +49,14 @@ public interface EscalationService {
 
 	public void getIssue(Number issueId, Handler<Either<String, JsonObject>> handler);
 
+	/**
+	 * Queue the synchronization of an issue, e.g. when the bug tracker notifies that it has been updated.
+	 * Queued issues are synchronized together after a short delay, an issue queued several times is synchronized once.
+	 *
+	 * @return false if the issue was already queued
+	 */
+	public boolean refreshIssue(Number issueId);
+
 	public void commentIssue(Number issueId, JsonObject comment, Handler<Either<String,JsonObject>> handler);
 
 	void syncAttachments(String ticketId, JsonArray attachments, Handler<Either<String, JsonObject>> handler);
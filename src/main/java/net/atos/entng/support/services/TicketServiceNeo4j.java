@@ -4,8 +4,13 @@ import fr.wseduc.webutils.Either;
 import org.vertx.java.core.Handler;
 import org.vertx.java.core.json.JsonArray;
 
-import java.util.Set;
-
 public interface TicketServiceNeo4j {
     public void getUsersFromList(JsonArray listUserIds, Handler<Either<String, JsonArray>> handler);
+
+    public void getUserStructures(String userId, Handler<Either<String, JsonArray>> handler);
+
+    /**
+     * Return the scopes (field "scope" : array of school ids) of function ADMIN_LOCAL of a user
+     */
+    public void getAdminLocalScopes(String userId, Handler<Either<String, JsonArray>> handler);
 }
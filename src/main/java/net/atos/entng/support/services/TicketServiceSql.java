@@ -32,18 +32,62 @@ import fr.wseduc.webutils.Either;
 
 public interface TicketServiceSql extends CrudService {
 
+	public static final String VALIDATOR_COMMENTS = "comments";
+	public static final String VALIDATOR_ATTACHMENTS = "attachments";
+	public static final String VALIDATOR_ISSUE = "issue";
+	public static final String VALIDATOR_EVENTS = "events";
+	public static final String VALIDATOR_DETAILS = "details";
+
 	public void createTicket(JsonObject ticket, JsonArray attachments, UserInfos user, String locale, Handler<Either<String, JsonObject>> handler);
 
 	public void updateTicket(String id, JsonObject data, UserInfos user,
 			Handler<Either<String, JsonObject>> handler);
 
-	public void listTickets(UserInfos user, Handler<Either<String, JsonArray>> handler);
+	/**
+	 * @param filters : optional filters and keyset cursor. Supported fields are "status", "category" and "school_id" (arrays),
+	 * "from" and "to" (bounds on field "modified"), "cursor_modified" and "cursor_id" (last row of previous page), "limit"
+	 * and "fields" ("summary" to select only the columns displayed in the list of tickets)
+	 */
+	public void listTickets(UserInfos user, JsonObject filters, Handler<Either<String, JsonArray>> handler);
 
-	public void listMyTickets(UserInfos user, Handler<Either<String, JsonArray>> handler);
+	/**
+	 * @param filters : same as listTickets
+	 */
+	public void listMyTickets(UserInfos user, JsonObject filters, Handler<Either<String, JsonArray>> handler);
 
-	public void getTicketForEscalation(String ticketId, Handler<Either<String, JsonObject>> handler);
+	/**
+	 * Get a validator of the page of tickets returned by listTickets (count, last modification, event count and ids),
+	 * computed on that page only
+	 */
+	public void getTicketsValidator(UserInfos user, JsonObject filters, Handler<Either<String, JsonObject>> handler);
+
+	/**
+	 * Get a validator of the page of tickets returned by listMyTickets, computed on that page only
+	 */
+	public void getMyTicketsValidator(UserInfos user, JsonObject filters, Handler<Either<String, JsonObject>> handler);
 
-	public void getTicketIdAndSchoolId(Number issueId, Handler<Either<String, JsonObject>> handler);
+	/**
+	 * Get a validator of the comments, attachments, bug tracker issue or events of a ticket, or of all of them
+	 * with the ticket itself (VALIDATOR_DETAILS, empty if the ticket does not exist)
+	 * @param scope : VALIDATOR_COMMENTS, VALIDATOR_ATTACHMENTS, VALIDATOR_ISSUE, VALIDATOR_EVENTS or VALIDATOR_DETAILS
+	 */
+	public void getTicketValidator(String ticketId, String scope, Handler<Either<String, JsonObject>> handler);
+
+	/**
+	 * Get the number of tickets by school, status and category : in the schools of the user if he is a local
+	 * or super administrator, among the tickets he created otherwise
+	 */
+	public void getTicketCounters(UserInfos user, Handler<Either<String, JsonArray>> handler);
+
+	public void getTicket(String ticketId, Handler<Either<String, JsonObject>> handler);
+
+	/**
+	 * Get a ticket with its comments, attachments, events and bug tracker issues (fields "comments", "attachments",
+	 * "events" and "issues"), in a single query
+	 */
+	public void getTicketDetails(String ticketId, Handler<Either<String, JsonObject>> handler);
+
+	public void getTicketForEscalation(String ticketId, Handler<Either<String, JsonObject>> handler);
 
 	/**
 	 * @param attachmentMap : key = attachmentId in bug tracker, value = attachmentId in gridfs
@@ -53,7 +97,25 @@ public interface TicketServiceSql extends CrudService {
 
 	public void endFailedEscalation(String ticketId, UserInfos user, Handler<Either<String, JsonObject>> handler);
 
-	public void updateIssue(Number issueId, String content, Handler<Either<String, JsonObject>> handler);
+	/**
+	 * Update content, content hash, last update time, status and closing time of a bug tracker issue, and insert its new journals
+	 * @return previous status_id of the issue
+	 */
+	public void updateIssue(Number issueId, JsonObject issue, Handler<Either<String, JsonObject>> handler);
+
+	/**
+	 * Update a page of bug tracker issues, and the update date of their tickets, in one statement.
+	 * Last update time, status and closing time are always refreshed. The content of issues whose status, journals,
+	 * attachments and assignee have not changed is not rewritten, and these issues are not returned.
+	 * Only journals that have not been received yet are inserted.
+	 * @return for each changed issue : id, previous status_id, ticket_id, school_id, owner, locale and status of the ticket
+	 */
+	public void updateIssues(JsonArray issues, Handler<Either<String, JsonArray>> handler);
+
+	/**
+	 * Insert history events (fields "ticket_id", "event" and "status") and increase event_count of their tickets, in one transaction
+	 */
+	public void createTicketHistos(JsonArray histos, int eventType, Handler<Either<String, JsonObject>> handler);
 
     public void updateEventCount(String ticketId, Handler<Either<String, JsonObject>> handler);
 
@@ -63,11 +125,57 @@ public interface TicketServiceSql extends CrudService {
 
 	public void getLastIssuesUpdate(Handler<Either<String, JsonArray>> handler);
 
+	/**
+	 * Get the last synchronization with the bug tracker (table sync_runs) in the given mode, or an empty object if there is none
+	 */
+	public void getLastSyncRun(String mode, Handler<Either<String, JsonObject>> handler);
+
+	/**
+	 * Start a synchronization with the bug tracker
+	 * @param since : watermark of the synchronization, i.e. issues updated before are not listed
+	 * @param offset : number of issues updated exactly on "since" that have already been processed
+	 * @param nextSince : watermark of the next synchronization, if this one succeeds
+	 * @return id of the synchronization
+	 */
+	public void createSyncRun(String mode, String since, int offset, String nextSince, Handler<Either<String, JsonObject>> handler);
+
+	/**
+	 * Save the progress of a synchronization once a page of issues has been processed
+	 * @param since : new position of the synchronization, or null to keep the current position (since and offset)
+	 * @param stats : numbers of issues "scanned", "updated" and "failed" in the page
+	 */
+	public void updateSyncRun(Number runId, String since, int offset, JsonObject stats, Handler<Either<String, JsonObject>> handler);
+
+	public void endSyncRun(Number runId, boolean success, Handler<Either<String, JsonObject>> handler);
+
+	/**
+	 * Take or renew the lease of the synchronization with the bug tracker, if it is free, expired or already held by this instance
+	 * @return the lease (fields "owner" and "expires") if this instance holds it, an empty object otherwise
+	 */
+	public void acquireSyncLease(String instanceId, long leaseSeconds, Handler<Either<String, JsonObject>> handler);
+
 	/**
 	 * Given a list of issue ids (parameter "issueIds"), return the issue ids that exist in database and their attachments' ids
 	 */
 	public void listExistingIssues(Number[] issueIds, Handler<Either<String, JsonArray>> handler);
 
+	/**
+	 * List ids of the bug tracker issues that are not closed, i.e. the issues that can still be updated in the bug tracker
+	 * @param closedStatusId : status of closed issues in the bug tracker
+	 */
+	public void listTrackedIssueIds(Number closedStatusId, Handler<Either<String, JsonArray>> handler);
+
+	/**
+	 * List ids of the bug tracker issues of an activity tier :
+	 * "hot" issues have been updated in the bug tracker during the last hotAgeHours hours and their ticket is not resolved,
+	 * "warm" issues have been updated during the last warmAgeDays days,
+	 * "cold" issues are older, closed in the bug tracker or their ticket is closed.
+	 * Tiers are computed from the issues as they were last fetched from the bug tracker
+	 * @param closedStatusId : status of closed issues in the bug tracker
+	 */
+	public void listTierIssueIds(String tier, int hotAgeHours, int warmAgeDays, Number closedStatusId,
+			Handler<Either<String, JsonArray>> handler);
+
 	public void getIssue(String ticketId, Handler<Either<String, JsonArray>> handler);
 
 	public void getIssueAttachmentName(String gridfsId, Handler<Either<String, JsonObject>> handler);
@@ -76,7 +184,5 @@ public interface TicketServiceSql extends CrudService {
 
     public void updateTicketStatus(Integer newStatus, List<Integer> ids, Handler<Either<String, JsonObject>> handler);
 
-    public void updateTicketIssueUpdateDate(Long ticketId, String updateDate, Handler<Either<String, JsonObject>> handler);
-
     public void listEvents(String ticketId, Handler<Either<String, JsonArray>> handler);
 }
@@ -20,12 +20,14 @@
 package net.atos.entng.support.services.impl;
 
 import static org.entcore.common.sql.SqlResult.*;
+import net.atos.entng.support.events.SearchResultCache;
 import net.atos.entng.support.services.CommentService;
 
 import org.entcore.common.service.impl.SqlCrudService;
 import org.entcore.common.sql.Sql;
 import org.vertx.java.core.Handler;
 import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
 
 import fr.wseduc.webutils.Either;
 
@@ -35,6 +37,12 @@ public class CommentServiceSqlImpl extends SqlCrudService implements CommentServ
 		super("support", "comments");
 	}
 
+	@Override
+	public void update(String id, JsonObject data, Handler<Either<String, JsonObject>> handler) {
+		// comments are searched : results of searches are invalidated
+		super.update(id, data, SearchResultCache.getInstance().invalidateAfter(handler));
+	}
+
 	@Override
 	public void listTicketComments(String ticketId, Handler<Either<String, JsonArray>> handler) {
 
@@ -22,7 +22,6 @@ package net.atos.entng.support.services.impl;
 import static net.atos.entng.support.Support.SUPPORT_NAME;
 
 import java.text.DateFormat;
-import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.*;
 import java.util.concurrent.ConcurrentMap;
@@ -56,6 +55,7 @@ import org.vertx.java.core.http.HttpClient;
 import org.vertx.java.core.http.HttpClientResponse;
 import org.vertx.java.core.http.HttpHeaders;
 import org.vertx.java.core.http.HttpServerRequest;
+import org.vertx.java.core.json.DecodeException;
 import org.vertx.java.core.json.JsonArray;
 import org.vertx.java.core.json.JsonObject;
 import org.vertx.java.core.logging.Logger;
@@ -83,6 +83,26 @@ public class EscalationServiceRedmineImpl implements EscalationService {
 	private final Storage storage;
 	private final Sql sql = Sql.getInstance();
 
+	private final SyncStage fetchStage;
+	private final SyncStage storeStage;
+	private final SyncStage attachmentStage;
+	private final int syncPageSize;
+	private final String syncMode;
+	// modes of the synchronizations in progress
+	private final Set<String> runningSyncs = new HashSet<>();
+	private final List<SyncTier> syncTiers = new ArrayList<>();
+	private final int hotAgeHours;
+	private final int warmAgeDays;
+	// only the instance holding the lease runs the synchronization, see acquireSyncLease
+	private final String instanceId = UUID.randomUUID().toString();
+	private final long syncLeaseSeconds;
+	private boolean syncLeader = false;
+	private final Vertx vertx;
+	private final long refreshDelay;
+	// issues notified by the bug tracker, waiting to be synchronized
+	private final Set<Long> pendingRefreshes = new LinkedHashSet<>();
+	private final long syncTaskTimeout;
+
 	private static final String ISSUE_RESOLVED_EVENT_TYPE = SUPPORT_NAME + "_BUGTRACKER_ISSUE_RESOLVED";
 	private static final String ISSUE_CLOSED_EVENT_TYPE = SUPPORT_NAME + "_BUGTRACKER_ISSUE_CLOSED";
 	private static final String ISSUE_UPDATED_EVENT_TYPE = SUPPORT_NAME + "_BUGTRACKER_ISSUE_UPDATED";
@@ -110,6 +130,7 @@ public class EscalationServiceRedmineImpl implements EscalationService {
 
 		JsonObject config = container.config();
 		log = container.logger();
+		this.vertx = vertx;
 		EventBus eb = Server.getEventBus(vertx);
 		httpClient = vertx.createHttpClient();
 		wksHelper = new WorkspaceHelper(eb, storage);
@@ -172,53 +193,298 @@ public class EscalationServiceRedmineImpl implements EscalationService {
 				}
 			});
 
-		Long delayInMinutes = config.getLong("refresh-period", 30);
-		log.info("[Support] Data will be pulled from Redmine every "+delayInMinutes+" minutes");
-		final Long delay = TimeUnit.MILLISECONDS.convert(delayInMinutes, TimeUnit.MINUTES);
+		syncTaskTimeout = TimeUnit.MILLISECONDS.convert(config.getLong("sync-task-timeout", 120), TimeUnit.SECONDS);
+		fetchStage = new SyncStage(vertx, "fetch", config.getInteger("sync-fetch-concurrency", 4), syncTaskTimeout);
+		storeStage = new SyncStage(vertx, "store", config.getInteger("sync-store-concurrency", 4), syncTaskTimeout);
+		attachmentStage = new SyncStage(vertx, "attachment", config.getInteger("sync-attachment-concurrency", 2), syncTaskTimeout);
 
-		ticketServiceSql.getLastIssuesUpdate(new Handler<Either<String, JsonArray>>() {
+		syncPageSize = config.getInteger("sync-page-size", 100);
+		refreshDelay = config.getLong("bug-tracker-hook-delay", 1000);
+		syncLeaseSeconds = Math.max(3, config.getLong("sync-lease", 60));
+		/*
+		 * "project" : list all the issues of the Redmine project updated since last pull
+		 * "tracked" : only list the issues escalated from the ENT that are not closed yet
+		 * "tiered" : list the issues escalated from the ENT, more or less often depending on their activity
+		 */
+		syncMode = config.getString("sync-mode", "project");
+		hotAgeHours = config.getInteger("sync-hot-age", 24);
+		warmAgeDays = config.getInteger("sync-warm-age", 30);
+
+		// the lease is renewed well before it expires, so that another instance takes over only if this one stops
+		this.acquireSyncLease();
+		vertx.setPeriodic(TimeUnit.MILLISECONDS.convert(syncLeaseSeconds, TimeUnit.SECONDS) / 3, new Handler<Long>() {
 			@Override
-			public void handle(Either<String, JsonArray> event) {
-				final String lastUpdate;
-				final DateFormat df = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
-				df.setTimeZone(TimeZone.getTimeZone("GMT"));
-				if(event.isRight() && event.right().getValue() != null) {
-					JsonObject jo = (JsonObject) event.right().getValue().get(0);
-
-					String date = jo.getString("last_update", null);
-					if (date != null) {
-						try {
-							Date d = df.parse(date);
-							date = df.format(new Date(d.getTime() + 2000l));
-						} catch (ParseException e) {
-							log.error(e.getMessage(), e);
-						}
+			public void handle(Long timerId) {
+				EscalationServiceRedmineImpl.this.acquireSyncLease();
+			}
+		});
+
+		if ("tiered".equals(syncMode)) {
+			syncTiers.add(new SyncTier("hot", config.getLong("sync-hot-period", 2)));
+			syncTiers.add(new SyncTier("warm", config.getLong("sync-warm-period", 15)));
+			syncTiers.add(new SyncTier("cold", config.getLong("sync-cold-period", 240)));
+			for (final SyncTier tier : syncTiers) {
+				log.info("[Support] Data of " + tier.name + " issues will be pulled from Redmine every " + tier.periodInMinutes + " minutes");
+				vertx.setPeriodic(TimeUnit.MILLISECONDS.convert(tier.periodInMinutes, TimeUnit.MINUTES), new Handler<Long>() {
+					@Override
+					public void handle(Long timerId) {
+						EscalationServiceRedmineImpl.this.logSyncMetrics();
+						EscalationServiceRedmineImpl.this.startSync(tier);
 					}
+				});
+			}
+		} else {
+			Long delayInMinutes = config.getLong("refresh-period", 30);
+			log.info("[Support] Data will be pulled from Redmine every "+delayInMinutes+" minutes");
+			final Long delay = TimeUnit.MILLISECONDS.convert(delayInMinutes, TimeUnit.MINUTES);
 
-					log.info("[Support] Last pull from Redmine : "+date);
-					lastUpdate = date;
+			vertx.setPeriodic(delay, new Handler<Long>() {
+				@Override
+				public void handle(Long timerId) {
+					log.debug("[Support] Current date : " + new Date().toString());
+					EscalationServiceRedmineImpl.this.logSyncMetrics();
+					EscalationServiceRedmineImpl.this.startSync(null);
 				}
-				else {
-					lastUpdate = null;
+			});
+		}
+
+	}
+
+	private void acquireSyncLease() {
+		ticketServiceSql.acquireSyncLease(instanceId, syncLeaseSeconds, new Handler<Either<String, JsonObject>>() {
+			@Override
+			public void handle(Either<String, JsonObject> event) {
+				boolean leader = event.isRight() && instanceId.equals(event.right().getValue().getString("owner"));
+				if (event.isLeft()) {
+					log.error("[Support] Error when acquiring the lease of the synchronization with Redmine : " + event.left().getValue());
 				}
+				if (leader != syncLeader) {
+					log.info("[Support] Instance " + instanceId + (leader ? " now runs" : " no longer runs")
+							+ " the synchronization with Redmine");
+				}
+				syncLeader = leader;
+			}
+		});
+	}
+
+	/**
+	 * Activity tier of the escalated issues, see TicketServiceSql.listTierIssueIds
+	 */
+	private static class SyncTier {
+		private final String name;
+		private final long periodInMinutes;
+		private int issues = 0;
+		private long runs = 0;
+		private long failedRuns = 0;
+		private long lastDuration = 0;
+
+		private SyncTier(String name, long periodInMinutes) {
+			this.name = name;
+			this.periodInMinutes = periodInMinutes;
+		}
+
+		private JsonObject getMetrics() {
+			return new JsonObject()
+				.putString("tier", name)
+				.putNumber("period", periodInMinutes)
+				.putNumber("issues", issues)
+				.putNumber("runs", runs)
+				.putNumber("failed_runs", failedRuns)
+				.putNumber("last_duration", lastDuration);
+		}
+	}
+
+	/*
+	 * Start a synchronization from the watermark saved by the last one, and journalize it in table sync_runs
+	 * @param tier : activity tier of the issues to synchronize in mode "tiered", null otherwise
+	 */
+	private void startSync(final SyncTier tier) {
+		if (!syncLeader) {
+			log.debug("[Support] The synchronization with Redmine is run by another instance");
+			return;
+		}
+		final String mode = tier != null ? "tiered-" + tier.name : syncMode;
+		if (!runningSyncs.add(mode)) {
+			log.warn("[Support] Previous pull from Redmine is still running : " + mode);
+			return;
+		}
+		final long start = System.currentTimeMillis();
 
-				vertx.setPeriodic(delay, new Handler<Long>() {
-					// initialize last update with value from database
-					String lastUpdateTime = lastUpdate;
+		// issues updated during the synchronization are listed again by the next one
+		final DateFormat df = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
+		df.setTimeZone(TimeZone.getTimeZone("GMT"));
+		final String nextSince = df.format(new Date());
 
+		final Handler<SyncCursor> cursorHandler = new Handler<SyncCursor>() {
+			@Override
+			public void handle(final SyncCursor cursor) {
+				if (cursor == null) {
+					runningSyncs.remove(mode);
+					return;
+				}
+				log.info("[Support] Last pull from Redmine (" + mode + ") : " + cursor.since);
+				ticketServiceSql.createSyncRun(mode, cursor.since, cursor.offset, nextSince, new Handler<Either<String, JsonObject>>() {
 					@Override
-					public void handle(Long timerId) {
-						Date currentDate = new Date();
-						log.debug("[Support] Current date : " + currentDate.toString());
+					public void handle(Either<String, JsonObject> event) {
+						if (event.isLeft()) {
+							log.error("[Support] Error when creating synchronization run : " + event.left().getValue());
+							runningSyncs.remove(mode);
+							return;
+						}
+						cursor.runId = event.right().getValue().getNumber("id");
 
-						EscalationServiceRedmineImpl.this.pullDataAndUpdateIssues(lastUpdateTime);
-						lastUpdateTime = df.format(new Date(currentDate.getTime() + 2000l));
-						log.debug("[Support] New value of lastUpdateTime : "+lastUpdateTime);
+						Handler<Boolean> handler = new Handler<Boolean>() {
+							@Override
+							public void handle(final Boolean success) {
+								ticketServiceSql.endSyncRun(cursor.runId, success, new Handler<Either<String, JsonObject>>() {
+									@Override
+									public void handle(Either<String, JsonObject> event) {
+										runningSyncs.remove(mode);
+										if (tier != null) {
+											tier.runs++;
+											tier.failedRuns += success ? 0 : 1;
+											tier.lastDuration = System.currentTimeMillis() - start;
+										}
+										if (event.isLeft()) {
+											log.error("[Support] Error when ending synchronization run " + cursor.runId + " : " + event.left().getValue());
+										}
+										if (success) {
+											log.info("pullDataAndUpdateIssue OK for all issues");
+										}
+										EscalationServiceRedmineImpl.this.logSyncMetrics();
+									}
+								});
+							}
+						};
+						if (tier != null || "tracked".equals(syncMode)) {
+							EscalationServiceRedmineImpl.this.pullTrackedIssues(cursor, tier, handler);
+						} else {
+							EscalationServiceRedmineImpl.this.pullDataAndUpdateIssues(cursor, handler);
+						}
 					}
 				});
 			}
+		};
+		if (tier != null) {
+			this.getTieredSyncCursor(cursorHandler);
+		} else {
+			this.getSyncCursor(mode, cursorHandler);
+		}
+	}
+
+	/*
+	 * Position to start the synchronization of a tier from : the oldest position of all the tiers.
+	 * The tier of an issue is computed from its last fetched update, and changes as time goes by : an issue can be listed
+	 * by a tier whose last run started after the issue was last fetched. Starting from the oldest position, its updates are not missed
+	 */
+	private void getTieredSyncCursor(final Handler<SyncCursor> handler) {
+		final List<SyncCursor> cursors = new ArrayList<>();
+		final AtomicInteger remaining = new AtomicInteger(syncTiers.size());
+		for (SyncTier tier : syncTiers) {
+			this.getSyncCursor("tiered-" + tier.name, new Handler<SyncCursor>() {
+				@Override
+				public void handle(SyncCursor cursor) {
+					cursors.add(cursor);
+					if (remaining.decrementAndGet() > 0) {
+						return;
+					}
+					SyncCursor oldest = null;
+					for (SyncCursor c : cursors) {
+						if (c == null) {
+							handler.handle(null);
+							return;
+						}
+						// dates are ISO 8601 in UTC, and a cursor without date lists all the issues
+						if (oldest == null || c.since == null || (oldest.since != null && c.since.compareTo(oldest.since) < 0)) {
+							oldest = c;
+						}
+					}
+					handler.handle(new SyncCursor(oldest.since, null));
+				}
+			});
+		}
+	}
+
+	@Override
+	public boolean refreshIssue(Number issueId) {
+		if (!pendingRefreshes.add(issueId.longValue())) {
+			return false;
+		}
+		if (pendingRefreshes.size() == 1) {
+			vertx.setTimer(refreshDelay, new Handler<Long>() {
+				@Override
+				public void handle(Long timerId) {
+					EscalationServiceRedmineImpl.this.refreshPendingIssues();
+				}
+			});
+		}
+		return true;
+	}
+
+	private void refreshPendingIssues() {
+		final JsonArray issues = new JsonArray();
+		for (Long issueId : pendingRefreshes) {
+			issues.addObject(new JsonObject().putNumber("id", issueId));
+		}
+		pendingRefreshes.clear();
+		log.debug("[Support] Refresh of issues notified by Redmine : " + issues.encode());
+
+		final JsonObject stats = new JsonObject()
+				.putNumber("scanned", issues.size())
+				.putNumber("updated", 0)
+				.putNumber("failed", 0);
+		this.syncIssues(issues, stats, new Handler<Boolean>() {
+			@Override
+			public void handle(Boolean success) {
+				if (!success) {
+					log.error("[Support] Refresh of issues notified by Redmine FAILED : " + issues.encode()
+							+ ". They will be synchronized by the next pull");
+				} else {
+					log.debug("[Support] Refresh of issues notified by Redmine : " + stats.encode());
+				}
+			}
 		});
+	}
 
+	/*
+	 * Position to start a synchronization from : the watermark of the last synchronization if it succeeded,
+	 * its progress if it failed or has been interrupted, or the last update of the issues if there is no synchronization yet
+	 */
+	private void getSyncCursor(String mode, final Handler<SyncCursor> handler) {
+		ticketServiceSql.getLastSyncRun(mode, new Handler<Either<String, JsonObject>>() {
+			@Override
+			public void handle(Either<String, JsonObject> event) {
+				if (event.isLeft()) {
+					log.error("[Support] Error when getting last synchronization run : " + event.left().getValue());
+					handler.handle(null);
+					return;
+				}
+				JsonObject run = event.right().getValue();
+				if (run != null && run.size() > 0) {
+					if ("succeeded".equals(run.getString("status"))) {
+						handler.handle(new SyncCursor(run.getString("watermark_end", null), null));
+					} else {
+						SyncCursor cursor = new SyncCursor(run.getString("cursor_since", null), null);
+						cursor.offset = run.getInteger("cursor_offset", 0);
+						handler.handle(cursor);
+					}
+					return;
+				}
+
+				ticketServiceSql.getLastIssuesUpdate(new Handler<Either<String, JsonArray>>() {
+					@Override
+					public void handle(Either<String, JsonArray> event) {
+						String lastUpdate = null;
+						if(event.isRight() && event.right().getValue() != null) {
+							JsonObject jo = (JsonObject) event.right().getValue().get(0);
+							// issues updated exactly on the last update are listed again, and skipped if they have not changed
+							lastUpdate = jo.getString("last_update", null);
+						}
+						handler.handle(new SyncCursor(lastUpdate, null));
+					}
+				});
+			}
+		});
 	}
 
 
@@ -541,14 +807,46 @@ public class EscalationServiceRedmineImpl implements EscalationService {
 			.end();
 	}
 
-	private void pullDataAndUpdateIssues(final String since) {
-		this.pullDataAndUpdateIssues(since, -1, -1, true);
+	/**
+	 * Position of a synchronization in the list of Redmine issues sorted by update date :
+	 * issues updated on or after "since", skipping the first "offset" ones (already processed issues updated exactly on "since").
+	 * When "issueIds" is set, only the issues with these ids are listed.
+	 * The progress is saved in the synchronization run "runId".
+	 */
+	static class SyncCursor {
+		String since;
+		private final String issueIds;
+		int offset = 0;
+		private Number runId;
+
+		SyncCursor(String since, String issueIds) {
+			this.since = since;
+			this.issueIds = issueIds;
+		}
+
+		/**
+		 * Move the cursor after the last issue of a processed page
+		 */
+		void advance(JsonArray issues) {
+			String lastUpdatedOn = ((JsonObject) issues.get(issues.size() - 1)).getString("updated_on");
+			int sameUpdateDate = 0;
+			for (int i = issues.size() - 1; i >= 0; i--) {
+				if (!lastUpdatedOn.equals(((JsonObject) issues.get(i)).getString("updated_on"))) break;
+				sameUpdateDate++;
+			}
+			if (lastUpdatedOn.equals(since)) {
+				offset += sameUpdateDate;
+			} else {
+				since = lastUpdatedOn;
+				offset = sameUpdateDate;
+			}
+		}
 	}
 
-	private void pullDataAndUpdateIssues(final String lastUpdateTime, final int offset, final int limit, final boolean allowRecursiveCall) {
+	private void pullDataAndUpdateIssues(final SyncCursor cursor, final Handler<Boolean> handler) {
 		/*
-		 * Steps :
-		 * 1) list Redmine issues that have been created/updated since last time
+		 * Steps, page by page :
+		 * 1) list Redmine issues that have been created/updated since the cursor, sorted by update date
 		 *
 		 * 2) get issue ids that exist in current ENT and their attachments' ids
 		 *
@@ -557,168 +855,332 @@ public class EscalationServiceRedmineImpl implements EscalationService {
 		 * b/ update the issue in Postgresql, so that local administrators can see the last changes
 		 * c/ If there are "new" attachments in Redmine, download them, store them in gridfs and store their metadata in postgresql
 		 *
+		 * 4) when all issues of the page are processed, move the cursor after the page and list the next page
 		 */
-		log.debug("Value of since : "+lastUpdateTime);
+		log.debug("Value of since : " + cursor.since + ", offset : " + cursor.offset);
 
 		// Step 1)
-		this.listIssues(lastUpdateTime, offset, limit, new Handler<Either<String, JsonObject>>() {
+		this.listIssues(cursor.since, cursor.issueIds, cursor.offset, syncPageSize, new Handler<Either<String, JsonObject>>() {
 			@Override
 			public void handle(final Either<String, JsonObject> listIssuesEvent) {
 
 				if(listIssuesEvent.isLeft()) {
 					log.error("Error when listing issues. " + listIssuesEvent.left().getValue());
+					handler.handle(false);
+					return;
 				}
-				else {
-					try {
-						final JsonArray issues = listIssuesEvent.right().getValue().getArray("issues", null);
-						if(issues == null || issues.size() == 0) {
-							log.debug("Result of listIssues is null or empty");
-							return;
-						}
 
-						if(allowRecursiveCall) {
-							int aTotalCount = listIssuesEvent.right().getValue().getInteger("total_count", -1);
-							int aOffset = listIssuesEvent.right().getValue().getInteger("offset", -1);
-							int aLimit = listIssuesEvent.right().getValue().getInteger("limit", -1);
-							if(aTotalCount!=-1 && aOffset!=-1 && aLimit!=-1 && (aTotalCount > aLimit)) {
-								// Second call to get remaining issues
-								EscalationServiceRedmineImpl.this.pullDataAndUpdateIssues(lastUpdateTime, aLimit, aTotalCount - aLimit, false);
-							}
-						}
+				final JsonArray issues = listIssuesEvent.right().getValue().getArray("issues", null);
+				if(issues == null || issues.size() == 0) {
+					log.debug("Result of listIssues is null or empty");
+					handler.handle(true);
+					return;
+				}
+				// Redmine can return less issues per page than requested
+				final int limit = listIssuesEvent.right().getValue().getInteger("limit", syncPageSize);
 
-						final Number[] issueIds = new Number[issues.size()];
-						for (int i = 0; i < issues.size(); i++) {
-							JsonObject issue = issues.get(i);
-							issueIds[i] = issue.getNumber("id");
-						}
+				final JsonObject stats = new JsonObject()
+						.putNumber("scanned", issues.size())
+						.putNumber("updated", 0)
+						.putNumber("failed", 0);
 
-						// Step 2) : given a list of issue ids in Redmine, get issue ids that exist in current ENT and their attachments' ids
-						ticketServiceSql.listExistingIssues(issueIds, new Handler<Either<String,JsonArray>>() {
+				// Steps 2) and 3)
+				EscalationServiceRedmineImpl.this.syncIssues(issues, stats, new Handler<Boolean>() {
+					@Override
+					public void handle(Boolean success) {
+						if (!success) {
+							handler.handle(false);
+							return;
+						}
+						// Step 4) : the position is saved once the page is processed, so that an interrupted synchronization resumes after it.
+						// Chunks of tracked issues are not sorted by update date : their synchronization resumes from its start
+						cursor.advance(issues);
+						String since = cursor.issueIds == null ? cursor.since : null;
+						ticketServiceSql.updateSyncRun(cursor.runId, since, cursor.offset, stats, new Handler<Either<String, JsonObject>>() {
 							@Override
-							public void handle(Either<String, JsonArray> event) {
-								if(event.isLeft()) {
-									log.error("Error when calling service listExistingIssueIds : " + event.left());
+							public void handle(Either<String, JsonObject> event) {
+								if (event.isLeft()) {
+									log.error("[Support] Error when saving progress of synchronization run " + cursor.runId + " : " + event.left().getValue());
+									handler.handle(false);
+								} else if (issues.size() < limit) {
+									handler.handle(true);
+								} else {
+									EscalationServiceRedmineImpl.this.pullDataAndUpdateIssues(cursor, handler);
 								}
-								else {
-									JsonArray existingIssues = event.right().getValue();
-									if(existingIssues == null || existingIssues.size() == 0) {
-										log.info("No issue ids found in database");
-										return;
-									}
-									log.debug("Result of service listExistingIssues : "+existingIssues.toString());
+							}
+						});
+					}
+				});
+			}
+		});
+	}
 
-									final AtomicInteger remaining = new AtomicInteger(existingIssues.size());
+	/*
+	 * Synchronize the issues that are not closed in the ENT, or the issues of an activity tier, by chunks of syncPageSize issue ids
+	 */
+	private void pullTrackedIssues(final SyncCursor cursor, final SyncTier tier, final Handler<Boolean> handler) {
+		Handler<Either<String, JsonArray>> issueIdsHandler = new Handler<Either<String, JsonArray>>() {
+			@Override
+			public void handle(Either<String, JsonArray> event) {
+				if (event.isLeft()) {
+					log.error("Error when listing tracked issues : " + event.left().getValue());
+					handler.handle(false);
+					return;
+				}
+				JsonArray issueIds = new JsonArray();
+				for (Object o : event.right().getValue()) {
+					if (!(o instanceof JsonObject)) continue;
+					issueIds.addNumber(((JsonObject) o).getNumber("id"));
+				}
+				log.debug("Number of tracked issues : " + issueIds.size());
+				if (tier != null) {
+					tier.issues = issueIds.size();
+				}
+				EscalationServiceRedmineImpl.this.pullTrackedIssues(cursor, issueIds, 0, handler);
+			}
+		};
+		if (tier != null) {
+			ticketServiceSql.listTierIssueIds(tier.name, hotAgeHours, warmAgeDays, redmineClosedStatusId, issueIdsHandler);
+		} else {
+			ticketServiceSql.listTrackedIssueIds(redmineClosedStatusId, issueIdsHandler);
+		}
+	}
 
-									for (Object o : existingIssues) {
-										if(!(o instanceof JsonObject)) continue;
-										JsonObject jo = (JsonObject) o;
+	private void pullTrackedIssues(final SyncCursor cursor, final JsonArray issueIds, final int from, final Handler<Boolean> handler) {
+		if (from >= issueIds.size()) {
+			handler.handle(true);
+			return;
+		}
+		int to = Math.min(from + syncPageSize, issueIds.size());
+		StringBuilder chunk = new StringBuilder();
+		for (int i = from; i < to; i++) {
+			chunk.append(issueIds.get(i)).append(",");
+		}
+		chunk.deleteCharAt(chunk.length() - 1);
+		final int next = to;
 
-										final Number issueId = jo.getNumber("id");
+		SyncCursor chunkCursor = new SyncCursor(cursor.since, chunk.toString());
+		chunkCursor.runId = cursor.runId;
+		this.pullDataAndUpdateIssues(chunkCursor, new Handler<Boolean>() {
+			@Override
+			public void handle(Boolean success) {
+				if (!success) {
+					handler.handle(false);
+				} else {
+					EscalationServiceRedmineImpl.this.pullTrackedIssues(cursor, issueIds, next, handler);
+				}
+			}
+		});
+	}
 
-										String ids = jo.getString("attachment_ids", null);
-										final JsonArray existingAttachmentsIds = (ids!=null) ? new JsonArray(ids) : null;
+	private void syncIssues(final JsonArray issues, final JsonObject stats, final Handler<Boolean> handler) {
+		final Number[] issueIds = new Number[issues.size()];
+		for (int i = 0; i < issues.size(); i++) {
+			JsonObject issue = issues.get(i);
+			issueIds[i] = issue.getNumber("id");
+		}
 
-										// Step 3a)
-										EscalationServiceRedmineImpl.this.getIssue(issueId, new Handler<Either<String, JsonObject>>() {
-											@Override
-											public void handle(final Either<String, JsonObject> getIssueEvent) {
-												if(getIssueEvent.isLeft()) {
-													log.error(getIssueEvent.left().getValue());
-												}
-												else {
-													final JsonObject issue = getIssueEvent.right().getValue();
-                                                    // check if this issue had already been received.
-                                                    ticketServiceSql.getTicketFromIssueId(issueId.toString(), new Handler<Either<String, JsonObject>> () {
-                                                        public void handle(final Either<String, JsonObject> res) {
-                                                            if(res.isRight()) {
-                                                                final JsonObject ticket = res.right().getValue();
-                                                                final DateFormat dfTicket = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss");
-                                                                final DateFormat dfIssue = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
-                                                                dfIssue.setTimeZone(TimeZone.getTimeZone("UTC"));
-                                                                Date ticketDate = null;
-                                                                Date issueDate = null;
-                                                                if( ticket != null &&
-                                                                        ticket.getString("issue_update_date") != null &&
-                                                                        !"".equals(ticket.getString("issue_update_date")))
-                                                                {
-                                                                    try {
-                                                                        ticketDate = dfTicket.parse(ticket.getString("issue_update_date"));
-                                                                        issueDate = dfIssue.parse(issue.getObject("issue").getString("updated_on"));
-                                                                    } catch (ParseException e) {
-                                                                        e.printStackTrace();
-                                                                    }
-                                                                }
-                                                                if( ticketDate == null || !ticketDate.equals(issueDate)) {
-                                                                    // if the issue_update_date == updated_on, it means the update had already been treated.
-                                                                    // Step 3b) : update issue in postgresql
-                                                                    ticketServiceSql.updateIssue(issueId, issue.toString(), new Handler<Either<String, JsonObject>>() {
-                                                                        @Override
-                                                                        public void handle(final Either<String, JsonObject> updateIssueEvent) {
-                                                                            if (updateIssueEvent.isRight()) {
-                                                                                log.debug("pullDataAndUpdateIssue OK for issue n°" + issueId);
-                                                                                if (remaining.decrementAndGet() < 1) {
-                                                                                    log.info("pullDataAndUpdateIssue OK for all issues");
-                                                                                }
-
-                                                                                EscalationServiceRedmineImpl.this.notifyIssueChanged(issueId, updateIssueEvent.right().getValue(), issue);
-                                                                                ticketServiceSql.updateTicketIssueUpdateDate(ticket.getLong("id"), issue.getObject("issue").getString("updated_on"), new Handler<Either<String, JsonObject>>() {
-                                                                                    @Override
-                                                                                    public void handle(final Either<String, JsonObject> res){
-                                                                                        if( res.isLeft()){
-                                                                                            log.error("Updating ticket " + ticket.getLong("id").toString() + " failed");
-                                                                                        }
-                                                                                    }
-                                                                                });
-                                                                            } else {
-                                                                                log.error("pullDataAndUpdateIssue FAILED. Error when updating issue n°" + issueId);
-                                                                            }
-                                                                        }
-                                                                    });
-
-
-                                                                    // Step 3c) : If "new" attachments have been added in Redmine, download them
-                                                                    final JsonArray redmineAttachments = issue.getObject("issue").getArray("attachments", null);
-                                                                    if (redmineAttachments != null && redmineAttachments.size() > 0) {
-                                                                        boolean existingAttachmentIdsEmpty = existingAttachmentsIds == null || existingAttachmentsIds.size() == 0;
-
-                                                                        for (Object o : redmineAttachments) {
-                                                                            if (!(o instanceof JsonObject)) continue;
-                                                                            final JsonObject attachment = (JsonObject) o;
-                                                                            final Number redmineAttachmentId = attachment.getNumber("id");
-
-                                                                            if (existingAttachmentIdsEmpty || !existingAttachmentsIds.contains(redmineAttachmentId)) {
-                                                                                final String attachmentUrl = attachment.getString("content_url");
-                                                                                EscalationServiceRedmineImpl.this.doDownloadAttachment(attachmentUrl, attachment, issueId);
-                                                                            }
-                                                                        }
-                                                                    }
-                                                                }
-                                                            }
-                                                        }
-
-                                                    });
+		// Step 2) : given a list of issue ids in Redmine, get issue ids that exist in current ENT and their attachments' ids
+		ticketServiceSql.listExistingIssues(issueIds, new Handler<Either<String,JsonArray>>() {
+			@Override
+			public void handle(Either<String, JsonArray> event) {
+				if(event.isLeft()) {
+					log.error("Error when calling service listExistingIssueIds : " + event.left());
+					handler.handle(false);
+					return;
+				}
+				JsonArray existingIssues = event.right().getValue();
+				if(existingIssues == null || existingIssues.size() == 0) {
+					log.debug("No issue ids found in database");
+					handler.handle(true);
+					return;
+				}
+				log.debug("Result of service listExistingIssues : "+existingIssues.toString());
 
+				final Map<Long, JsonObject> fetchedIssues = new HashMap<>();
+				final Map<Long, JsonArray> existingAttachments = new HashMap<>();
+				final AtomicInteger remaining = new AtomicInteger(existingIssues.size());
 
-												}
-											}
-										});
+				for (Object o : existingIssues) {
+					if(!(o instanceof JsonObject)) {
+						remaining.decrementAndGet();
+						continue;
+					}
+					JsonObject jo = (JsonObject) o;
+
+					final Number issueId = jo.getNumber("id");
+
+					String ids = jo.getString("attachment_ids", null);
+					existingAttachments.put(issueId.longValue(), (ids!=null) ? new JsonArray(ids) : null);
+
+					// Step 3a)
+					fetchStage.submit(new Handler<Handler<Void>>() {
+						@Override
+						public void handle(final Handler<Void> fetchDone) {
+							EscalationServiceRedmineImpl.this.getIssue(issueId, new Handler<Either<String, JsonObject>>() {
+								@Override
+								public void handle(final Either<String, JsonObject> getIssueEvent) {
+									if(getIssueEvent.isLeft()) {
+										log.error(getIssueEvent.left().getValue());
 									}
+									else {
+										fetchedIssues.put(issueId.longValue(), getIssueEvent.right().getValue());
+									}
+									fetchDone.handle(null);
 								}
+							});
+						}
+					}, new Handler<Void>() {
+						@Override
+						public void handle(Void event) {
+							if (remaining.decrementAndGet() == 0) {
+								stats.putNumber("failed", existingAttachments.size() - fetchedIssues.size());
+								EscalationServiceRedmineImpl.this.storeIssues(new HashMap<>(fetchedIssues), existingAttachments, stats, handler);
 							}
-						});
+						}
+					});
+				}
+			}
+		});
+	}
+
+	/*
+	 * Steps 3b) and 3c) for the fetched issues of a page : the issues are updated in postgresql in one statement,
+	 * then their updates are notified and historized, and the new attachments of the updated issues are downloaded.
+	 * The page fails if one of its issues failed to be fetched, so that the cursor is not moved after it
+	 */
+	private void storeIssues(final Map<Long, JsonObject> issues, final Map<Long, JsonArray> existingAttachments,
+			final JsonObject stats, final Handler<Boolean> handler) {
+		final boolean allFetched = issues.size() == existingAttachments.size();
+		if (!allFetched) {
+			log.error("pullDataAndUpdateIssue FAILED for " + (existingAttachments.size() - issues.size())
+					+ " issues. The page will be processed again by the next synchronization");
+		}
+		if (issues.isEmpty()) {
+			// every issue of the page failed to be fetched : Redmine is probably unavailable
+			handler.handle(allFetched);
+			return;
+		}
+		final JsonArray updatedIssues = new JsonArray();
+		// a store task that timed out is considered failed
+		final AtomicBoolean storeFailed = new AtomicBoolean(true);
 
-					} catch (Exception e) {
-						log.error("Service pullDataAndUpdateIssues : error after listing issues", e);
+		// Step 3b) : update issues in postgresql, except those whose update had already been received
+		storeStage.submit(new Handler<Handler<Void>>() {
+			@Override
+			public void handle(final Handler<Void> storeDone) {
+				ticketServiceSql.updateIssues(new JsonArray(new ArrayList<Object>(issues.values())), new Handler<Either<String, JsonArray>>() {
+					@Override
+					public void handle(Either<String, JsonArray> event) {
+						if (event.isRight()) {
+							for (Object o : event.right().getValue()) {
+								updatedIssues.add(o);
+							}
+							storeFailed.set(false);
+						} else {
+							log.error("pullDataAndUpdateIssue FAILED. Error when updating issues : " + event.left().getValue());
+						}
+						storeDone.handle(null);
 					}
+				});
+			}
+		}, new Handler<Void>() {
+			@Override
+			public void handle(Void event) {
+				log.debug("pullDataAndUpdateIssue OK for " + updatedIssues.size() + " issues");
+				if (storeFailed.get()) {
+					// the page will be processed again by the next synchronization
+					handler.handle(false);
+					return;
 				}
+				stats.putNumber("updated", updatedIssues.size());
+				EscalationServiceRedmineImpl.this.notifyIssuesChanged(updatedIssues, issues, new Handler<Boolean>() {
+					@Override
+					public void handle(final Boolean notified) {
+						EscalationServiceRedmineImpl.this.downloadNewAttachments(issues, existingAttachments, new Handler<Void>() {
+							@Override
+							public void handle(Void event) {
+								handler.handle(allFetched && notified);
+							}
+						});
+					}
+				});
+			}
+		});
+	}
 
+	/*
+	 * Step 3c) : If "new" attachments have been added in Redmine, download them.
+	 * All the fetched issues are checked, so that attachments missed by an interrupted synchronization are downloaded
+	 */
+	private void downloadNewAttachments(final Map<Long, JsonObject> issues, final Map<Long, JsonArray> existingAttachments,
+			final Handler<Void> handler) {
+		final JsonArray newAttachments = new JsonArray();
+		for (Map.Entry<Long, JsonObject> entry : issues.entrySet()) {
+			Number issueId = entry.getKey();
+			JsonObject issue = entry.getValue();
+			JsonArray existingAttachmentsIds = existingAttachments.get(entry.getKey());
+
+			final JsonArray redmineAttachments = issue.getObject("issue").getArray("attachments", null);
+			if (redmineAttachments == null || redmineAttachments.size() == 0) continue;
+			boolean existingAttachmentIdsEmpty = existingAttachmentsIds == null || existingAttachmentsIds.size() == 0;
+
+			for (Object a : redmineAttachments) {
+				if (!(a instanceof JsonObject)) continue;
+				final JsonObject attachment = (JsonObject) a;
+				final Number redmineAttachmentId = attachment.getNumber("id");
+
+				if (existingAttachmentIdsEmpty || !existingAttachmentsIds.contains(redmineAttachmentId)) {
+					newAttachments.addObject(attachment.copy().putNumber("issue_id", issueId));
+				}
 			}
+		}
+		this.downloadAttachments(newAttachments, handler);
+	}
 
-		});
+	/*
+	 * Step 3c) : download the given attachments (field "issue_id" holds their issue), store them in gridfs and store their metadata in postgresql
+	 */
+	private void downloadAttachments(final JsonArray attachments, final Handler<Void> handler) {
+		if (attachments.size() == 0) {
+			handler.handle(null);
+			return;
+		}
+		final AtomicInteger remaining = new AtomicInteger(attachments.size());
+		for (Object o : attachments) {
+			final JsonObject attachment = (JsonObject) o;
+			attachmentStage.submit(new Handler<Handler<Void>>() {
+				@Override
+				public void handle(Handler<Void> attachmentDone) {
+					EscalationServiceRedmineImpl.this.doDownloadAttachment(attachment.getString("content_url"), attachment,
+							attachment.getNumber("issue_id"), attachmentDone);
+				}
+			}, new Handler<Void>() {
+				@Override
+				public void handle(Void event) {
+					if (remaining.decrementAndGet() == 0) {
+						handler.handle(null);
+					}
+				}
+			});
+		}
 	}
 
+	private void logSyncMetrics() {
+		log.info("[Support] Synchronization stages with Redmine : " + new JsonArray()
+				.addObject(fetchStage.getMetrics())
+				.addObject(storeStage.getMetrics())
+				.addObject(attachmentStage.getMetrics()).encode());
+		if (!syncTiers.isEmpty()) {
+			JsonArray tiers = new JsonArray();
+			for (SyncTier tier : syncTiers) {
+				tiers.addObject(tier.getMetrics());
+			}
+			log.info("[Support] Synchronization tiers : " + tiers.encode());
+		}
+	}
 
-	private void listIssues(final String since, final int offset, final int limit, final Handler<Either<String, JsonObject>> handler) {
+	private void listIssues(final String since, final String issueIds, final int offset, final int limit, final Handler<Either<String, JsonObject>> handler) {
 		String url = proxyIsDefined ? ("http://" + redmineHost + ":" + redminePort + REDMINE_ISSUES_PATH) : REDMINE_ISSUES_PATH;
 
 		StringBuilder query = new StringBuilder("?status_id=*"); // return open and closed issues
@@ -729,6 +1191,12 @@ public class EscalationServiceRedmineImpl implements EscalationService {
 			 * According to http://www.redmine.org/projects/redmine/wiki/Rest_Issues : operators containing ">", "<" or "=" should be hex-encoded
 			 */
 		}
+		if(issueIds != null) {
+			// issue_id : comma-separated list of issue ids
+			query.append("&issue_id=").append(issueIds);
+		}
+		// stable order, so that pages can be traversed with a cursor on update date
+		query.append("&sort=updated_on,id");
 		if(offset > -1) {
 			// offset: skip this number of issues in response
 			query.append("&offset=").append(offset);
@@ -746,39 +1214,63 @@ public class EscalationServiceRedmineImpl implements EscalationService {
 				resp.bodyHandler(new Handler<Buffer>() {
 					@Override
 					public void handle(Buffer data) {
-						JsonObject response = new JsonObject(data.toString());
 						if(resp.statusCode() == 200) {
-							handler.handle(new Either.Right<String, JsonObject>(response));
+							try {
+								handler.handle(new Either.Right<String, JsonObject>(new JsonObject(data.toString())));
+							} catch (DecodeException e) {
+								handler.handle(new Either.Left<String, JsonObject>("Invalid response when listing redmine tickets : " + e.getMessage()));
+							}
 						}
 						else {
 							log.error("Error when listing redmine tickets. Response status is "
 									+ resp.statusCode() + " instead of 200.");
-							handler.handle(new Either.Left<String, JsonObject>(response.toString()));
+							handler.handle(new Either.Left<String, JsonObject>(data.toString()));
 						}
 					}
 				});
 			}
 		})
+		.exceptionHandler(new Handler<Throwable>() {
+			@Override
+			public void handle(Throwable t) {
+				handler.handle(new Either.Left<String, JsonObject>("Error when listing redmine tickets : " + t.getMessage()));
+			}
+		})
+		.setTimeout(syncTaskTimeout)
 		.putHeader(HttpHeaders.HOST, redmineHost)
 		.putHeader(HEADER_REDMINE_API_KEY, redmineApiKey)
 		.putHeader(HttpHeaders.CONTENT_TYPE, "application/json")
 		.end();
 	}
 
-	private void doDownloadAttachment(final String attachmentUrl, final JsonObject attachment, final Number issueId) {
+	/*
+	 * Download an attachment, store it in gridfs and store its metadata in postgresql. Handler "done" is called in any case
+	 */
+	private void doDownloadAttachment(final String attachmentUrl, final JsonObject attachment, final Number issueId, final Handler<Void> done) {
 		final Number attachmentIdInRedmine = attachment.getNumber("id");
 
-		EscalationServiceRedmineImpl.this.downloadAttachment(attachmentUrl, new Handler<Buffer>() {
+		EscalationServiceRedmineImpl.this.downloadAttachment(attachmentUrl, new Handler<Either<String, Buffer>>() {
 			@Override
-			public void handle(Buffer data) {
+			public void handle(Either<String, Buffer> downloadEvent) {
+				if (downloadEvent.isLeft()) {
+					log.error("download attachment " + attachmentIdInRedmine + " FAILED for issue n°" + issueId + ". " + downloadEvent.left().getValue());
+					done.handle(null);
+					return;
+				}
 				// store attachment
-				storage.writeBuffer(data, attachment.getString("content_type", ""),
+				storage.writeBuffer(downloadEvent.right().getValue(), attachment.getString("content_type", ""),
 						attachment.getString("filename"), new Handler<JsonObject>() {
 							@Override
 							public void handle(JsonObject attachmentMetaData) {
 						/* Response example from gridfsWriteBuffer :
 						 * {"_id":"f62f5dac-b32b-4cb8-b70a-1016885f37ec","status":"ok","metadata":{"content-type":"image/png","filename":"test_pj.png","size":118639}}
 						 */
+								if (attachmentMetaData == null || !"ok".equals(attachmentMetaData.getString("status"))) {
+									log.error("download attachment " + attachmentIdInRedmine + " FAILED for issue n°" + issueId + ". Error when trying to write it in gridfs : "
+											+ (attachmentMetaData != null ? attachmentMetaData.getString("message") : null));
+									done.handle(null);
+									return;
+								}
 								log.info("Metadata of attachment written in gridfs: " + attachmentMetaData.encodePrettily());
 								attachmentMetaData.putNumber("id_in_bugtracker", attachmentIdInRedmine);
 
@@ -786,6 +1278,7 @@ public class EscalationServiceRedmineImpl implements EscalationService {
 								ticketServiceSql.insertIssueAttachment(issueId, attachmentMetaData, new Handler<Either<String, JsonArray>>() {
 									@Override
 									public void handle(Either<String, JsonArray> event) {
+										done.handle(null);
 										if (event.isRight()) {
 											log.info("download attachment " + attachmentIdInRedmine + " OK for issue n°" + issueId);
 										} else {
@@ -800,158 +1293,167 @@ public class EscalationServiceRedmineImpl implements EscalationService {
 	}
 
 	/*
-	 * Notify local administrators (of the ticket's school_id) that the Redmine issue's status has been changed to "resolved" or "closed"
+	 * Send timeline notifications to local administrators and owners of the tickets whose issues have been updated,
+	 * and historize the updates. Local administrators are fetched once per school.
+	 * The handler is called with false if the updates could not be historized
 	 */
-	private void notifyIssueChanged(final Number issueId, final JsonObject updateIssueResponse, final JsonObject issue) {
-		try {
-			final String oldStatus = updateIssueResponse.getString("status_id", "-1");
-			final int oldStatusId = Integer.parseInt(oldStatus);
-			final Number newStatusId = issue.getObject("issue").getObject("status").getNumber("id");
-			log.debug("Old status_id: " + oldStatusId);
-			log.debug("New status_id:" + newStatusId);
-//			if(newStatusId.intValue() != oldStatusId &&
-//					(newStatusId.intValue() == redmineResolvedStatusId.intValue() ||
-//					newStatusId.intValue() == redmineClosedStatusId.intValue())) {
-
-            JsonObject lastEvent = null;
-            if( issue.getObject("issue") != null && issue.getObject("issue").getArray("journals") != null &&
-                    issue.getObject("issue").getArray("journals").size() >= 1) {
-                // getting the last event from the bug tracker for historization
-                lastEvent = issue.getObject("issue").getArray("journals").get(issue.getObject("issue").getArray("journals").size() - 1);
-            }
-            final JsonObject fLastEvent = lastEvent;
-
-			// get school_id and ticket_id
-            ticketServiceSql.getTicketIdAndSchoolId(issueId, new Handler<Either<String,JsonObject>>() {
-					@Override
-					public void handle(Either<String, JsonObject> event) {
-						if(event.isLeft()) {
-							log.error("[Support] Error when calling service getTicketIdAndSchoolId : "
-									+ event.left().getValue() + ". Unable to send timeline notification.");
-						}
-						else {
-							final JsonObject ticket = event.right().getValue();
-							if(ticket == null || ticket.size() == 0) {
-								log.error("[Support] Error : ticket is null or empty. Unable to send timeline notification.");
-								return;
+	private void notifyIssuesChanged(final JsonArray updatedIssues, final Map<Long, JsonObject> issues, final Handler<Boolean> handler) {
+		final Map<String, List<JsonObject>> ticketsBySchool = new HashMap<>();
+		for (Object o : updatedIssues) {
+			if (!(o instanceof JsonObject)) continue;
+			JsonObject ticket = (JsonObject) o;
+			String schoolId = ticket.getString("school_id", null);
+			if (ticket.getNumber("ticket_id", -1).longValue() == -1 || schoolId == null) {
+				log.error("[Support] Error : cannot get ticketId or schoolId. Unable to send timeline notification.");
+				continue;
+			}
+			if (!ticketsBySchool.containsKey(schoolId)) {
+				ticketsBySchool.put(schoolId, new ArrayList<JsonObject>());
+			}
+			ticketsBySchool.get(schoolId).add(ticket);
+		}
+		if (ticketsBySchool.isEmpty()) {
+			handler.handle(true);
+			return;
+		}
+
+		final JsonArray histos = new JsonArray();
+		final AtomicInteger remaining = new AtomicInteger(ticketsBySchool.size());
+		for (final Map.Entry<String, List<JsonObject>> entry : ticketsBySchool.entrySet()) {
+			// get local administrators
+			userService.getLocalAdministrators(entry.getKey(), new Handler<JsonArray>() {
+				@Override
+				public void handle(JsonArray event) {
+					if (event != null && event.size() > 0) {
+						for (JsonObject ticket : entry.getValue()) {
+							try {
+								JsonObject histo = EscalationServiceRedmineImpl.this.notifyIssueChanged(ticket, event,
+										issues.get(ticket.getNumber("id").longValue()));
+								if (histo != null) {
+									histos.addObject(histo);
+								}
+							} catch (Exception e) {
+								log.error("[Support] Error : unable to send timeline notification.", e);
 							}
+						}
+					}
 
-							final Number ticketId = ticket.getNumber("id", -1);
-							String schooldId = ticket.getString("school_id", null);
-							if(ticketId.longValue() == -1 || schooldId == null) {
-								log.error("[Support] Error : cannot get ticketId or schoolId. Unable to send timeline notification.");
-								return;
+					if (remaining.decrementAndGet() > 0) {
+						return;
+					}
+					if (histos.size() == 0) {
+						handler.handle(true);
+						return;
+					}
+					ticketServiceSql.createTicketHistos(histos, 6, new Handler<Either<String, JsonObject>>() {
+						@Override
+						public void handle(Either<String, JsonObject> res) {
+							if (res.isLeft()) {
+								log.error("Error creation historization : " + res.left().getValue());
 							}
+							handler.handle(res.isRight());
+						}
+					});
+				}
+			});
+		}
+	}
 
-							// get local administrators
-							userService.getLocalAdministrators(schooldId, new Handler<JsonArray>() {
-								@Override
-								public void handle(JsonArray event) {
-									if (event != null && event.size() > 0) {
-										Set<String> recipientSet = new HashSet<>();
-										for (Object o : event) {
-											if (!(o instanceof JsonObject)) continue;
-											JsonObject j = (JsonObject) o;
-											String id = j.getString("id");
-											recipientSet.add(id);
-										}
+	/**
+	 * @param ticket : updated issue, as returned by updateIssues
+	 * @param localAdministrators : local administrators of the ticket's school
+	 * @return history event of the update, or null if there is nothing to historize
+	 */
+	private JsonObject notifyIssueChanged(final JsonObject ticket, final JsonArray localAdministrators, final JsonObject issue) {
+		final Number issueId = ticket.getNumber("id");
+		final Number ticketId = ticket.getNumber("ticket_id");
+		final int oldStatusId = ticket.getNumber("status_id", -1).intValue();
+		final Number newStatusId = issue.getObject("issue").getObject("status").getNumber("id");
+		log.debug("Old status_id: " + oldStatusId);
+		log.debug("New status_id:" + newStatusId);
+
+		JsonObject lastEvent = null;
+		if( issue.getObject("issue") != null && issue.getObject("issue").getArray("journals") != null &&
+				issue.getObject("issue").getArray("journals").size() >= 1) {
+			// getting the last event from the bug tracker for historization
+			lastEvent = issue.getObject("issue").getArray("journals").get(issue.getObject("issue").getArray("journals").size() - 1);
+		}
 
-                                        // the requier should be advised too
-                                        if( !recipientSet.contains(ticket.getString("owner"))) {
-                                            recipientSet.add(ticket.getString("owner"));
-                                        }
-
-										List<String> recipients = new ArrayList<>(recipientSet);
-										if(!recipients.isEmpty()) {
-											String notificationName;
-
-											if(newStatusId.intValue() != oldStatusId &&
-													newStatusId.intValue() == redmineResolvedStatusId.intValue()) {
-												notificationName = "bugtracker-issue-resolved";
-											} else if (newStatusId.intValue() != oldStatusId &&
-													newStatusId.intValue() == redmineClosedStatusId.intValue()) {
-												notificationName = "bugtracker-issue-closed";
-											} else {
-												notificationName = "bugtracker-issue-updated";
-											}
+		Set<String> recipientSet = new HashSet<>();
+		for (Object o : localAdministrators) {
+			if (!(o instanceof JsonObject)) continue;
+			JsonObject j = (JsonObject) o;
+			String id = j.getString("id");
+			recipientSet.add(id);
+		}
 
-											JsonObject params = new JsonObject();
-											params.putNumber("issueId", issueId)
-												.putNumber("ticketId", ticketId);
-											params.putString("ticketUri", "/support#/ticket/" + ticketId);
-											params.putString("resourceUri", params.getString("ticketUri"));
-
-											notification.notifyTimeline(null, "support." + notificationName, null, recipients, null, params);
-                                            // Historization
-                                            String additionnalInfoHisto = "";
-                                            String locale = ticket.getString("locale");
-                                            if( fLastEvent != null && fLastEvent.getArray("details") != null  ){
-                                                if( fLastEvent.getArray("details").size() > 0 ){
-                                                    JsonArray details = fLastEvent.getArray("details");
-                                                    // do not duplicate identical informations
-                                                    boolean attrFound = false;
-                                                    boolean attachmentFound = false;
-                                                    boolean otherFound = false;
-                                                    for ( Object obj:details ){
-                                                        if (!(obj instanceof JsonObject)) continue;
-                                                        JsonObject detail = (JsonObject) obj;
-                                                        switch( detail.getString("property")){
-                                                            case "attr":
-                                                                if( !attrFound ) {
-                                                                    additionnalInfoHisto += I18n.getInstance().translate("support.ticket.histo.bug.tracker.attr", I18n.DEFAULT_DOMAIN, locale);
-                                                                    attrFound = true;
-                                                                }
-                                                                break;
-                                                            case "attachment":
-                                                                if( !attachmentFound ) {
-                                                                    additionnalInfoHisto += I18n.getInstance().translate("support.ticket.histo.bug.tracker.attachment", I18n.DEFAULT_DOMAIN, locale);
-                                                                    attachmentFound = true;
-                                                                }
-                                                                break;
-                                                            default:
-                                                                if( !otherFound ) {
-                                                                    additionnalInfoHisto += I18n.getInstance().translate("support.ticket.histo.bug.tracker.other", I18n.DEFAULT_DOMAIN, locale);
-                                                                    otherFound = true;
-                                                                }
-                                                                break;
-                                                        }
-                                                    }
-                                                    ticketServiceSql.createTicketHisto(ticket.getInteger("id").toString(), I18n.getInstance().translate("support.ticket.histo.bug.tracker.updated", I18n.DEFAULT_DOMAIN, locale) + additionnalInfoHisto,
-                                                        ticket.getInteger("status"), null, 6, new Handler<Either<String, JsonObject>>() {
-                                                            @Override
-                                                            public void handle(Either<String, JsonObject> res) {
-                                                                if (res.isRight()) {
-                                                                    ticketServiceSql.updateEventCount(ticket.getInteger("id").toString(), new Handler<Either<String, JsonObject>>() {
-                                                                        @Override
-                                                                        public void handle(Either<String, JsonObject> res) {
-                                                                            if (res.isLeft()) {
-                                                                                log.error("Error updating ticket (event_count) : " + res.left().getValue());
-                                                                            }
-                                                                        }
-                                                                    });
-                                                                } else {
-                                                                    log.error("Error creation historization : " + res.left().getValue());
-                                                                }
-                                                       }
-                                                        });
-                                                }
-                                            }
-
-                                        }
-									}
-								}
-							});
-						}
-					}
-				});
+		// the requier should be advised too
+		if( !recipientSet.contains(ticket.getString("owner"))) {
+			recipientSet.add(ticket.getString("owner"));
+		}
+
+		List<String> recipients = new ArrayList<>(recipientSet);
+		String notificationName;
+
+		if(newStatusId.intValue() != oldStatusId &&
+				newStatusId.intValue() == redmineResolvedStatusId.intValue()) {
+			notificationName = "bugtracker-issue-resolved";
+		} else if (newStatusId.intValue() != oldStatusId &&
+				newStatusId.intValue() == redmineClosedStatusId.intValue()) {
+			notificationName = "bugtracker-issue-closed";
+		} else {
+			notificationName = "bugtracker-issue-updated";
+		}
+
+		JsonObject params = new JsonObject();
+		params.putNumber("issueId", issueId)
+			.putNumber("ticketId", ticketId);
+		params.putString("ticketUri", "/support#/ticket/" + ticketId);
+		params.putString("resourceUri", params.getString("ticketUri"));
 
-//			}
-		} catch (Exception e) {
-			log.error("[Support] Error : unable to send timeline notification.", e);
+		notification.notifyTimeline(null, "support." + notificationName, null, recipients, null, params);
+
+		// Historization
+		if( lastEvent == null || lastEvent.getArray("details") == null ) {
+			return null;
+		}
+		String additionnalInfoHisto = "";
+		String locale = ticket.getString("locale");
+		JsonArray details = lastEvent.getArray("details");
+		// do not duplicate identical informations
+		boolean attrFound = false;
+		boolean attachmentFound = false;
+		boolean otherFound = false;
+		for ( Object obj:details ){
+			if (!(obj instanceof JsonObject)) continue;
+			JsonObject detail = (JsonObject) obj;
+			switch( detail.getString("property")){
+				case "attr":
+					if( !attrFound ) {
+						additionnalInfoHisto += I18n.getInstance().translate("support.ticket.histo.bug.tracker.attr", I18n.DEFAULT_DOMAIN, locale);
+						attrFound = true;
+					}
+					break;
+				case "attachment":
+					if( !attachmentFound ) {
+						additionnalInfoHisto += I18n.getInstance().translate("support.ticket.histo.bug.tracker.attachment", I18n.DEFAULT_DOMAIN, locale);
+						attachmentFound = true;
+					}
+					break;
+				default:
+					if( !otherFound ) {
+						additionnalInfoHisto += I18n.getInstance().translate("support.ticket.histo.bug.tracker.other", I18n.DEFAULT_DOMAIN, locale);
+						otherFound = true;
+					}
+					break;
+			}
 		}
+		return new JsonObject()
+			.putNumber("ticket_id", ticketId)
+			.putString("event", I18n.getInstance().translate("support.ticket.histo.bug.tracker.updated", I18n.DEFAULT_DOMAIN, locale) + additionnalInfoHisto)
+			.putNumber("status", ticket.getNumber("status"));
 	}
 
-
 	@Override
 	public void getIssue(final Number issueId, final Handler<Either<String, JsonObject>> handler) {
 		String path = "/issues/" + issueId + ".json?include=journals,attachments";
@@ -977,6 +1479,13 @@ public class EscalationServiceRedmineImpl implements EscalationService {
 				});
 			}
 		})
+		.exceptionHandler(new Handler<Throwable>() {
+			@Override
+			public void handle(Throwable t) {
+				log.error("[Support] Error when getting redmine issue " + issueId, t);
+				handler.handle(new Either.Left<String, JsonObject>("support.error.comment.added.to.escalated.ticket.but.synchronization.failed"));
+			}
+		})
 		.putHeader(HttpHeaders.HOST, redmineHost)
 		.putHeader(HEADER_REDMINE_API_KEY, redmineApiKey)
 		.putHeader(HttpHeaders.CONTENT_TYPE, "application/json")
@@ -986,20 +1495,31 @@ public class EscalationServiceRedmineImpl implements EscalationService {
 	/**
 	 * @param attachmentUrl : attachment URL given by Redmine, e.g. "http://support.web-education.net/attachments/download/784/test_pj.png"
 	 */
-	private void downloadAttachment(final String attachmentUrl, final Handler<Buffer> handler) {
+	private void downloadAttachment(final String attachmentUrl, final Handler<Either<String, Buffer>> handler) {
 		String url = proxyIsDefined ? attachmentUrl : attachmentUrl.substring(attachmentUrl.indexOf(redmineHost) + redmineHost.length());
 
 		httpClient.get(url, new Handler<HttpClientResponse>() {
 			@Override
-			public void handle(HttpClientResponse resp) {
+			public void handle(final HttpClientResponse resp) {
 				resp.bodyHandler(new Handler<Buffer>() {
 					@Override
 					public void handle(Buffer data) {
-						handler.handle(data);
+						if (resp.statusCode() == 200) {
+							handler.handle(new Either.Right<String, Buffer>(data));
+						} else {
+							handler.handle(new Either.Left<String, Buffer>("Response status is " + resp.statusCode() + " instead of 200."));
+						}
 					}
 				});
 			}
 		})
+		.exceptionHandler(new Handler<Throwable>() {
+			@Override
+			public void handle(Throwable t) {
+				handler.handle(new Either.Left<String, Buffer>("Error when downloading redmine attachment : " + t.getMessage()));
+			}
+		})
+		.setTimeout(syncTaskTimeout)
 		.putHeader(HttpHeaders.HOST, redmineHost)
 		.putHeader(HEADER_REDMINE_API_KEY, redmineApiKey)
 		.putHeader(HttpHeaders.CONTENT_TYPE, "application/json")
@@ -0,0 +1,140 @@
+/*
+ * Copyright © Région Nord Pas de Calais-Picardie,  Département 91, Région Aquitaine-Limousin-Poitou-Charentes, 2016.
+ *
+ * This file is part of OPEN ENT NG. OPEN ENT NG is a versatile ENT Project based on the JVM and ENT Core Project.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation (version 3 of the License).
+ *
+ * For the sake of explanation, any module that communicate over native
+ * Web protocols, such as HTTP, with OPEN ENT NG is outside the scope of this
+ * license and could be license under its own terms. This is merely considered
+ * normal use of OPEN ENT NG, and does not fall under the heading of "covered work".
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+package net.atos.entng.support.services.impl;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.json.JsonObject;
+import org.vertx.java.core.logging.Logger;
+import org.vertx.java.core.logging.impl.LoggerFactory;
+
+/**
+ * Stage of the synchronization with the bug tracker : at most maxInFlight tasks run at the same time,
+ * other tasks are queued until a running task is done.
+ * A task receives a handler that it must call when it is done. A task that is not done after taskTimeout
+ * milliseconds releases its slot, so that a lost response does not stall the stage.
+ * The completion handler given with a task is called exactly once, when the task is done or has timed out.
+ *
+ * Not thread-safe : tasks must be submitted from the event loop of the verticle.
+ */
+public class SyncStage {
+
+	private static final Logger log = LoggerFactory.getLogger(SyncStage.class);
+
+	private final Vertx vertx;
+	private final String name;
+	private final int maxInFlight;
+	private final long taskTimeout;
+
+	private final Queue<Task> queue = new ArrayDeque<>();
+	private int inFlight = 0;
+	private int maxQueueDepth = 0;
+	private long submitted = 0;
+	private long completed = 0;
+	private long timedOut = 0;
+
+	public SyncStage(Vertx vertx, String name, int maxInFlight, long taskTimeout) {
+		this.vertx = vertx;
+		this.name = name;
+		this.maxInFlight = Math.max(1, maxInFlight);
+		this.taskTimeout = taskTimeout;
+	}
+
+	private static class Task {
+		private final Handler<Handler<Void>> handler;
+		private final Handler<Void> onComplete;
+
+		private Task(Handler<Handler<Void>> handler, Handler<Void> onComplete) {
+			this.handler = handler;
+			this.onComplete = onComplete;
+		}
+	}
+
+	public void submit(Handler<Handler<Void>> task, Handler<Void> onComplete) {
+		submitted++;
+		queue.add(new Task(task, onComplete));
+		maxQueueDepth = Math.max(maxQueueDepth, queue.size());
+		drain();
+	}
+
+	private void drain() {
+		while (inFlight < maxInFlight && !queue.isEmpty()) {
+			final Task task = queue.poll();
+			inFlight++;
+
+			final long[] timerId = new long[1];
+			final Handler<Void> done = new Handler<Void>() {
+				private boolean isDone = false;
+
+				@Override
+				public void handle(Void event) {
+					if (isDone) {
+						return;
+					}
+					isDone = true;
+					vertx.cancelTimer(timerId[0]);
+					inFlight--;
+					completed++;
+					try {
+						task.onComplete.handle(null);
+					} catch (Exception e) {
+						log.error("[Support] Error in completion of a task of synchronization stage " + name, e);
+					}
+					drain();
+				}
+			};
+			timerId[0] = vertx.setTimer(taskTimeout, new Handler<Long>() {
+				@Override
+				public void handle(Long event) {
+					log.warn("[Support] Task of synchronization stage " + name + " timed out after " + taskTimeout + " ms");
+					timedOut++;
+					done.handle(null);
+				}
+			});
+
+			try {
+				task.handler.handle(done);
+			} catch (Exception e) {
+				log.error("[Support] Error in task of synchronization stage " + name, e);
+				done.handle(null);
+			}
+		}
+	}
+
+	/**
+	 * @return tasks running and queued, maximum queue depth since last call, submitted, completed and timed out tasks
+	 */
+	public JsonObject getMetrics() {
+		JsonObject metrics = new JsonObject()
+			.putString("stage", name)
+			.putNumber("in_flight", inFlight)
+			.putNumber("queued", queue.size())
+			.putNumber("max_queued", maxQueueDepth)
+			.putNumber("submitted", submitted)
+			.putNumber("completed", completed)
+			.putNumber("timed_out", timedOut);
+		maxQueueDepth = queue.size();
+		return metrics;
+	}
+
+}
@@ -2,33 +2,131 @@ package net.atos.entng.support.services.impl;
 
 import static org.entcore.common.neo4j.Neo4jResult.validResultHandler;
 
+import net.atos.entng.support.services.TicketServiceNeo4j;
 import org.entcore.common.neo4j.Neo4j;
+import org.entcore.common.user.DefaultFunctions;
 import fr.wseduc.webutils.Either;
 import org.vertx.java.core.Handler;
 import org.vertx.java.core.json.JsonArray;
 import org.vertx.java.core.json.JsonObject;
-import org.vertx.java.core.json.impl.Json;
+import org.vertx.java.core.logging.Logger;
+import org.vertx.java.core.logging.impl.LoggerFactory;
 
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
-import static org.entcore.common.neo4j.Neo4jResult.validResultHandler;
 
+public class TicketServiceNeo4jImpl implements TicketServiceNeo4j {
 
-public class TicketServiceNeo4jImpl {
+    private static final Logger log = LoggerFactory.getLogger(TicketServiceNeo4jImpl.class);
 
     private Neo4j neo4j = Neo4j.getInstance();
 
-    public void getUsersFromList(JsonArray listUserIds, Handler<Either<String, JsonArray>> handler) {
+    /*
+     * Profiles of users, fetched from neo4j. Least recently used entries are evicted when cache is full,
+     * and entries older than profileCacheTtl are fetched again.
+     */
+    private final Map<String, CachedProfiles> profileCache;
+    private final long profileCacheTtl;
+    private final AtomicLong profileCacheHits = new AtomicLong(0);
+    private final AtomicLong profileCacheMisses = new AtomicLong(0);
+
+    private static final class CachedProfiles {
+        private final JsonArray profiles;
+        private final long expirationTime;
+
+        private CachedProfiles(JsonArray profiles, long expirationTime) {
+            this.profiles = profiles;
+            this.expirationTime = expirationTime;
+        }
+    }
+
+    /**
+     * @param cacheSize : maximum number of users whose profiles are kept in cache
+     * @param cacheTtlInMinutes : time to live of a cache entry
+     */
+    public TicketServiceNeo4jImpl(final int cacheSize, final long cacheTtlInMinutes) {
+        profileCacheTtl = TimeUnit.MILLISECONDS.convert(cacheTtlInMinutes, TimeUnit.MINUTES);
+        profileCache = new LinkedHashMap<String, CachedProfiles>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedProfiles> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    /**
+     * Return ids and profiles of users ("n.id" and "n.profiles"). Only users missing from cache are fetched from neo4j.
+     */
+    @Override
+    public void getUsersFromList(JsonArray listUserIds, final Handler<Either<String, JsonArray>> handler) {
+        final JsonArray result = new JsonArray();
+        final JsonArray missingIds = new JsonArray();
+        final long now = System.currentTimeMillis();
+
+        synchronized (profileCache) {
+            for (Object o : listUserIds) {
+                if (!(o instanceof String)) continue;
+                String userId = (String) o;
+                CachedProfiles cached = profileCache.get(userId);
+                if (cached != null && cached.expirationTime > now) {
+                    if (cached.profiles != null) {
+                        result.addObject(new JsonObject().putString("n.id", userId).putArray("n.profiles", cached.profiles));
+                    }
+                } else {
+                    missingIds.addString(userId);
+                }
+            }
+        }
+        profileCacheHits.addAndGet(listUserIds.size() - missingIds.size());
+        profileCacheMisses.addAndGet(missingIds.size());
+        if (log.isDebugEnabled()) {
+            log.debug("[Support] Profile cache : " + getProfileCacheStats().encode());
+        }
+
+        if (missingIds.size() == 0) {
+            handler.handle(new Either.Right<String, JsonArray>(result));
+            return;
+        }
+
         String query = "match(n:User) where n.id in {ids} return n.id, n.profiles;";
 
-        JsonObject params = new JsonObject().putArray("ids", listUserIds);
+        JsonObject params = new JsonObject().putArray("ids", missingIds);
 
-        neo4j.execute(query, params, validResultHandler(handler));
+        neo4j.execute(query, params, validResultHandler(new Handler<Either<String, JsonArray>>() {
+            @Override
+            public void handle(Either<String, JsonArray> event) {
+                if (event.isLeft()) {
+                    handler.handle(event);
+                    return;
+                }
+
+                final long expirationTime = System.currentTimeMillis() + profileCacheTtl;
+                final Set<Object> notFoundIds = new LinkedHashSet<>(missingIds.toList());
+                synchronized (profileCache) {
+                    for (Object o : event.right().getValue()) {
+                        if (!(o instanceof JsonObject)) continue;
+                        JsonObject jUser = (JsonObject) o;
+                        String userId = jUser.getString("n.id");
+                        profileCache.put(userId, new CachedProfiles(jUser.getArray("n.profiles"), expirationTime));
+                        notFoundIds.remove(userId);
+                        result.addObject(jUser);
+                    }
+                    // users that do not exist anymore are cached too, so that they are not fetched on each listing
+                    for (Object userId : notFoundIds) {
+                        profileCache.put((String) userId, new CachedProfiles(null, expirationTime));
+                    }
+                }
+                handler.handle(new Either.Right<String, JsonArray>(result));
+            }
+        }));
     }
 
+    @Override
     public void getUserStructures(String userId, Handler<Either<String, JsonArray>> handler) {
         String query = "match (u:User)-[IN]->(p:ProfileGroup)-[DEPENDS]->(s:Structure) where u.id = {id} return distinct s.id as id, s.name as name order by s.name;";
 
@@ -36,4 +134,27 @@ public class TicketServiceNeo4jImpl {
 
         neo4j.execute(query, params, validResultHandler(handler));
     }
+
+    @Override
+    public void getAdminLocalScopes(String userId, Handler<Either<String, JsonArray>> handler) {
+        String query = "MATCH (u:User {id: {id}})-[rf:HAS_FUNCTION]->()-[:CONTAINS_FUNCTION*0..1]->(f:Function {externalId: {function}}) " +
+                "RETURN rf.scope AS scope";
+
+        JsonObject params = new JsonObject().putString("id", userId).putString("function", DefaultFunctions.ADMIN_LOCAL);
+
+        neo4j.execute(query, params, validResultHandler(handler));
+    }
+
+    /**
+     * @return size, hits and misses of the profile cache, logged at debug level
+     */
+    private JsonObject getProfileCacheStats() {
+        int size;
+        synchronized (profileCache) {
+            size = profileCache.size();
+        }
+        return new JsonObject().putNumber("size", size)
+                .putNumber("hits", profileCacheHits.get())
+                .putNumber("misses", profileCacheMisses.get());
+    }
 }
@@ -22,12 +22,8 @@ package net.atos.entng.support.services.impl;
 import static org.entcore.common.sql.Sql.parseId;
 import static org.entcore.common.sql.SqlResult.validUniqueResultHandler;
 import static org.entcore.common.sql.SqlResult.validResultHandler;
+import static org.entcore.common.sql.SqlResult.validRowsResultHandler;
 
-import java.text.DateFormat;
-import java.text.Format;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
-import java.util.Date;
 import java.util.List;
 import java.util.TimeZone;
 import java.util.concurrent.ConcurrentMap;
@@ -36,6 +32,7 @@ import fr.wseduc.webutils.http.Renders;
 import net.atos.entng.support.enums.BugTracker;
 import net.atos.entng.support.enums.EscalationStatus;
 import net.atos.entng.support.enums.TicketStatus;
+import net.atos.entng.support.events.SearchResultCache;
 import net.atos.entng.support.services.TicketServiceSql;
 
 import org.entcore.common.service.impl.SqlCrudService;
@@ -54,9 +51,25 @@ import org.vertx.java.core.logging.impl.LoggerFactory;
 public class TicketServiceSqlImpl extends SqlCrudService implements TicketServiceSql {
 
 	private final static String UPSERT_USER_QUERY = "SELECT support.merge_users(?,?)";
+	// Columns displayed in the list of tickets. Field "description" is only loaded when viewing a ticket
+	private final static String SUMMARY_FIELDS = "t.id, t.subject, t.status, t.category, t.school_id, t.owner, t.created, t.modified, " +
+			"t.event_count, t.escalation_status";
+	// Format of the dates sent by the bug tracker. Columns updated_on and closed_on of bug_tracker_issues are stored in UTC
+	private final static String ISSUE_DATE_FORMAT = "YYYY-MM-DD\"T\"HH24:MI:SS\"Z\"";
+	// Format of timestamps returned by the sql module, for timestamps rendered inside JSON columns
+	private final static String SQL_DATE_FORMAT = "YYYY-MM-DD\"T\"HH24:MI:SS.MS";
+	// Validator of a page of tickets (alias "t") : changes whenever a ticket of the page is created, updated or deleted,
+	// or moves to another page
+	private final static String LIST_VALIDATOR_FIELDS = "SELECT count(t.id) AS count, max(t.modified) AS modified, " +
+			"sum(t.event_count) AS event_count, md5(string_agg(t.id::TEXT, ',' ORDER BY t.id)) AS ids";
+	// Journals of a bug tracker issue (alias "i"), stored in table bug_tracker_journals and merged back into its content
+	private final static String JOURNALS_FIELD = " (SELECT COALESCE(json_agg(j.content ORDER BY j.id), '[]')" +
+			" FROM support.bug_tracker_journals AS j WHERE j.issue_id = i.id) AS journals";
     protected static final Logger log = LoggerFactory.getLogger(Renders.class);
 
 	private final BugTracker bugTrackerType;
+	// Results of searches are invalidated when tickets or bug tracker issues are written
+	private final SearchResultCache searchResultCache = SearchResultCache.getInstance();
 
 	public TicketServiceSqlImpl(BugTracker bugTracker) {
 		super("support", "tickets");
@@ -81,7 +94,7 @@ public class TicketServiceSqlImpl extends SqlCrudService implements TicketServic
 
 		this.insertAttachments(attachments, user, s, null);
 
-		sql.transaction(s.build(), validUniqueResultHandler(1, handler));
+		sql.transaction(s.build(), validUniqueResultHandler(1, searchResultCache.invalidateAfter(handler)));
 	}
 
 	@Override
@@ -127,7 +140,7 @@ public class TicketServiceSqlImpl extends SqlCrudService implements TicketServic
 		this.insertAttachments(attachments, user, s, ticketId);
 
 		// Send queries to event bus
-		sql.transaction(s.build(), validUniqueResultHandler(1, handler));
+		sql.transaction(s.build(), validUniqueResultHandler(1, searchResultCache.invalidateAfter(handler)));
 	}
 
 
@@ -172,21 +185,234 @@ public class TicketServiceSqlImpl extends SqlCrudService implements TicketServic
 
 
 	@Override
-	public void listTickets(UserInfos user, Handler<Either<String, JsonArray>> handler) {
+	public void listTickets(UserInfos user, JsonObject filters, Handler<Either<String, JsonArray>> handler) {
 		StringBuilder query = new StringBuilder();
-		query.append("SELECT t.*, u.username AS owner_name,")
-			.append("i.content").append(bugTrackerType.getLastIssueUpdateFromPostgresqlJson()).append(" AS last_issue_update, ")
+		query.append("SELECT ").append(getListFields(filters)).append(", u.username AS owner_name,")
+			.append("to_char(i.updated_on, '").append(ISSUE_DATE_FORMAT).append("') AS last_issue_update, ")
             .append(" substring(t.description, 0, 101)  as short_desc")
 			.append(" FROM support.tickets AS t")
 			.append(" INNER JOIN support.users AS u ON t.owner = u.id")
 			.append(" LEFT JOIN support.bug_tracker_issues AS i ON t.id=i.ticket_id");
 
 		JsonArray values = new JsonArray();
+		boolean hasWhere = appendListScope(query, values, user);
+		hasWhere = appendListFilters(query, values, filters, hasWhere);
+		appendListPage(query, values, filters, hasWhere);
+
+		sql.prepared(query.toString(), values, validResultHandler(handler));
+	}
+
+	@Override
+	public void listMyTickets(UserInfos user, JsonObject filters, Handler<Either<String, JsonArray>> handler) {
+		StringBuilder query = new StringBuilder();
+		query.append("SELECT ").append(getListFields(filters))
+			.append(", u.username AS owner_name, substring(t.description, 0, 100)  as short_desc FROM support.tickets AS t")
+			.append(" INNER JOIN support.users AS u ON t.owner = u.id")
+			.append(" WHERE t.owner = ?");
+		JsonArray values = new JsonArray().add(user.getUserId());
+
+		boolean hasWhere = appendListFilters(query, values, filters, true);
+		appendListPage(query, values, filters, hasWhere);
+
+		sql.prepared(query.toString(), values, validResultHandler(handler));
+	}
+
+	@Override
+	public void getTicketsValidator(UserInfos user, JsonObject filters, Handler<Either<String, JsonObject>> handler) {
+		// the validator is computed on the requested page only, selected as in listTickets
+		StringBuilder query = new StringBuilder(LIST_VALIDATOR_FIELDS)
+			.append(", count(t.issue_id) AS issues, max(t.issue_modified) AS issue_modified")
+			.append(" FROM (SELECT t.id, t.modified, t.event_count, i.id AS issue_id, i.modified AS issue_modified")
+			.append(" FROM support.tickets AS t")
+			.append(" LEFT JOIN support.bug_tracker_issues AS i ON t.id=i.ticket_id");
+		JsonArray values = new JsonArray();
+		boolean hasWhere = appendListScope(query, values, user);
+		hasWhere = appendListFilters(query, values, filters, hasWhere);
+		appendListPage(query, values, filters, hasWhere);
+		query.append(") AS t");
+
+		sql.prepared(query.toString(), values, validUniqueResultHandler(handler));
+	}
+
+	@Override
+	public void getMyTicketsValidator(UserInfos user, JsonObject filters, Handler<Either<String, JsonObject>> handler) {
+		StringBuilder query = new StringBuilder(LIST_VALIDATOR_FIELDS)
+			.append(" FROM (SELECT t.id, t.modified, t.event_count")
+			.append(" FROM support.tickets AS t")
+			.append(" WHERE t.owner = ?");
+		JsonArray values = new JsonArray().add(user.getUserId());
+		boolean hasWhere = appendListFilters(query, values, filters, true);
+		appendListPage(query, values, filters, hasWhere);
+		query.append(") AS t");
+
+		sql.prepared(query.toString(), values, validUniqueResultHandler(handler));
+	}
+
+	@Override
+	public void getTicketValidator(String ticketId, String scope, Handler<Either<String, JsonObject>> handler) {
+		final String query;
+		switch (scope) {
+			case VALIDATOR_COMMENTS:
+				query = "SELECT count(*) AS count, max(modified) AS modified FROM support.comments WHERE ticket_id = ?";
+				break;
+			case VALIDATOR_ATTACHMENTS:
+				query = "SELECT count(*) AS count, max(created) AS modified FROM support.attachments WHERE ticket_id = ?";
+				break;
+			case VALIDATOR_ISSUE:
+				query = "SELECT count(DISTINCT i.id) AS count, max(i.modified) AS modified, count(a.id) AS attachments"
+						+ " FROM support.bug_tracker_issues AS i"
+						+ " LEFT JOIN support.bug_tracker_attachments AS a ON i.id = a.issue_id"
+						+ " WHERE i.ticket_id = ?";
+				break;
+			case VALIDATOR_EVENTS:
+				query = "SELECT count(*) AS count, max(event_date) AS modified FROM support.tickets_histo WHERE ticket_id = ?";
+				break;
+			case VALIDATOR_DETAILS:
+				// Combination of the validators above, with the ticket itself (as returned by getTicketDetails)
+				query = "SELECT t.modified, t.status, t.event_count,"
+						+ " c.count AS comments, c.modified AS comments_modified,"
+						+ " a.count AS attachments, a.modified AS attachments_modified,"
+						+ " i.count AS issues, i.modified AS issues_modified, i.attachments AS issues_attachments,"
+						+ " h.count AS events, h.modified AS events_modified"
+						+ " FROM support.tickets AS t"
+						+ " CROSS JOIN LATERAL (SELECT count(*) AS count, max(modified) AS modified"
+						+ " FROM support.comments WHERE ticket_id = t.id) AS c"
+						+ " CROSS JOIN LATERAL (SELECT count(*) AS count, max(created) AS modified"
+						+ " FROM support.attachments WHERE ticket_id = t.id) AS a"
+						+ " CROSS JOIN LATERAL (SELECT count(DISTINCT bi.id) AS count, max(bi.modified) AS modified, count(ba.id) AS attachments"
+						+ " FROM support.bug_tracker_issues AS bi"
+						+ " LEFT JOIN support.bug_tracker_attachments AS ba ON bi.id = ba.issue_id"
+						+ " WHERE bi.ticket_id = t.id) AS i"
+						+ " CROSS JOIN LATERAL (SELECT count(*) AS count, max(event_date) AS modified"
+						+ " FROM support.tickets_histo WHERE ticket_id = t.id) AS h"
+						+ " WHERE t.id = ?";
+				break;
+			default:
+				handler.handle(new Either.Left<String, JsonObject>("Unknown validator scope : " + scope));
+				return;
+		}
+		JsonArray values = new JsonArray().add(parseId(ticketId));
+
+		sql.prepared(query, values, validUniqueResultHandler(handler));
+	}
+
+	/**
+	 * @return ticket columns to select : only summary columns if filters contain "fields" = "summary", all columns otherwise
+	 */
+	private String getListFields(final JsonObject filters) {
+		if(filters != null && "summary".equals(filters.getString("fields", null))) {
+			return SUMMARY_FIELDS;
+		}
+		return "t.*";
+	}
+
+	@Override
+	public void getTicket(String ticketId, Handler<Either<String, JsonObject>> handler) {
+		String query = "SELECT t.*, u.username AS owner_name FROM support.tickets AS t"
+				+ " INNER JOIN support.users AS u ON t.owner = u.id"
+				+ " WHERE t.id = ?";
+		JsonArray values = new JsonArray().add(parseId(ticketId));
+
+		sql.prepared(query, values, validUniqueResultHandler(handler));
+	}
+
+	@Override
+	public void getTicketCounters(UserInfos user, Handler<Either<String, JsonArray>> handler) {
+		List<String> schools = null;
+		Function adminLocal = user.getFunctions().get(DefaultFunctions.ADMIN_LOCAL);
+		if (adminLocal != null) {
+			schools = adminLocal.getScope();
+		} else if (user.getFunctions().containsKey(DefaultFunctions.SUPER_ADMIN)) {
+			schools = user.getStructures().subList(0, 1); // SUPER_ADMIN, has only 1 structure.
+		}
+
+		StringBuilder query = new StringBuilder();
+		JsonArray values = new JsonArray();
+		if (schools != null && !schools.isEmpty()) {
+			// Table ticket_counters is maintained by a trigger on table tickets
+			query.append("SELECT school_id, status, category, count FROM support.ticket_counters")
+				.append(" WHERE count > 0 AND school_id IN (");
+			for (String school : schools) {
+				query.append("?,");
+				values.addString(school);
+			}
+			query.deleteCharAt(query.length() - 1);
+			query.append(")");
+		} else {
+			query.append("SELECT school_id, status, category, count(*) AS count FROM support.tickets")
+				.append(" WHERE owner = ?")
+				.append(" GROUP BY school_id, status, category");
+			values.addString(user.getUserId());
+		}
+
+		sql.prepared(query.toString(), values, validResultHandler(handler));
+	}
+
+	@Override
+	public void getTicketDetails(String ticketId, final Handler<Either<String, JsonObject>> handler) {
+		// Each sub-query mirrors the query of the corresponding endpoint (comments, attachments, events, bugtrackerissue).
+		// Timestamps are rendered with to_char, as json_agg would use another format than the sql module
+		StringBuilder query = new StringBuilder("SELECT t.*, u.username AS owner_name,")
+			.append(" (SELECT COALESCE(json_agg(c), '[]') FROM (SELECT c.id, c.ticket_id, c.owner,")
+			.append(" to_char(c.created, '").append(SQL_DATE_FORMAT).append("') AS created,")
+			.append(" to_char(c.modified, '").append(SQL_DATE_FORMAT).append("') AS modified,")
+			.append(" c.content, cu.username AS owner_name")
+			.append(" FROM support.comments AS c INNER JOIN support.users AS cu ON c.owner = cu.id")
+			.append(" WHERE c.ticket_id = t.id ORDER BY c.modified) AS c) AS comments,")
+			.append(" (SELECT COALESCE(json_agg(a), '[]') FROM (SELECT a.document_id, a.ticket_id, a.name,")
+			.append(" to_char(a.created, '").append(SQL_DATE_FORMAT).append("') AS created,")
+			.append(" a.size, a.owner, au.username AS owner_name")
+			.append(" FROM support.attachments AS a INNER JOIN support.users AS au ON a.owner = au.id")
+			.append(" WHERE a.ticket_id = t.id ORDER BY a.created) AS a) AS attachments,")
+			.append(" (SELECT COALESCE(json_agg(h), '[]') FROM (SELECT hu.username, h.event, h.status,")
+			.append(" to_char(h.event_date, '").append(SQL_DATE_FORMAT).append("') AS event_date, h.user_id, h.event_type")
+			.append(" FROM support.tickets_histo AS h LEFT OUTER JOIN support.users AS hu ON hu.id = h.user_id")
+			.append(" WHERE h.ticket_id = t.id ORDER BY h.id) AS h) AS events,")
+			.append(" (SELECT COALESCE(json_agg(i), '[]') FROM (SELECT i.id, i.content,")
+			.append(" (SELECT COALESCE(json_agg((ba.id, ba.document_id, ba.gridfs_id)::support.bug_tracker_attachment_tuple), '[]')")
+			.append(" FROM support.bug_tracker_attachments AS ba WHERE ba.issue_id = i.id) AS attachments,")
+			.append(JOURNALS_FIELD)
+			.append(" FROM support.bug_tracker_issues AS i WHERE i.ticket_id = t.id) AS i) AS issues")
+			.append(" FROM support.tickets AS t")
+			.append(" INNER JOIN support.users AS u ON t.owner = u.id")
+			.append(" WHERE t.id = ?");
+		JsonArray values = new JsonArray().add(parseId(ticketId));
+
+		sql.prepared(query.toString(), values, validUniqueResultHandler(new Handler<Either<String, JsonObject>>() {
+			@Override
+			public void handle(Either<String, JsonObject> event) {
+				if (event.isRight() && event.right().getValue().size() > 0) {
+					// JSON columns are sent as strings by the sql module
+					JsonObject ticket = event.right().getValue();
+					for (String field : new String[] {"comments", "attachments", "events", "issues"}) {
+						Object value = ticket.getValue(field);
+						if (value instanceof String) {
+							ticket.putArray(field, new JsonArray((String) value));
+						}
+					}
+					for (Object issue : ticket.getArray("issues")) {
+						if (issue instanceof JsonObject) {
+							mergeJournals((JsonObject) issue);
+						}
+					}
+				}
+				handler.handle(event);
+			}
+		}));
+	}
+
+	/**
+	 * Append the scope of a local or super administrator to a query listing tickets (alias "t").
+	 *
+	 * @return true if a WHERE clause has been appended
+	 */
+	static boolean appendListScope(final StringBuilder query, final JsonArray values, final UserInfos user) {
+		boolean hasWhere = false;
 		Function adminLocal = user.getFunctions().get(DefaultFunctions.ADMIN_LOCAL);
 		if (adminLocal != null) {
 			List<String> scopesList = adminLocal.getScope();
 			if(scopesList != null && !scopesList.isEmpty()) {
-				query.append(" WHERE t.school_id IN (");
+				query.append(" WHERE (t.school_id IN (");
 				for (String scope : scopesList) {
 					query.append("?,");
 					values.addString(scope);
@@ -195,36 +421,144 @@ public class TicketServiceSqlImpl extends SqlCrudService implements TicketServic
 				query.append(")");
 
 				// Include tickets created by current user, and linked to a school where he is not local administrator
-				query.append(" OR t.owner = ?");
+				query.append(" OR t.owner = ?)");
 				values.addString(user.getUserId());
+				hasWhere = true;
 			}
 		} else {
             query.append(" WHERE t.school_id IN (?)");
             values.addString(user.getStructures().get(0)); // SUPER_ADMIN, has only 1 structure.
+            hasWhere = true;
         }
 
-		sql.prepared(query.toString(), values, validResultHandler(handler));
+		return hasWhere;
 	}
 
-	@Override
-	public void listMyTickets(UserInfos user, Handler<Either<String, JsonArray>> handler) {
-		String query = "SELECT t.*, u.username AS owner_name, substring(t.description, 0, 100)  as short_desc FROM support.tickets AS t"
-			+ " INNER JOIN support.users AS u ON t.owner = u.id"
-			+ " WHERE t.owner = ?";
-		JsonArray values = new JsonArray().add(user.getUserId());
+	/**
+	 * Query inserting the journals of bug tracker issues that have not been stored yet.
+	 * Journals inserted at the same time by another statement (webhook and synchronization) are skipped.
+	 * Requires PostgreSQL 9.5
+	 *
+	 * @param source relation with the id and the JSON content of each issue
+	 */
+	private static String insertJournalsQuery(final String source) {
+		return "INSERT INTO support.bug_tracker_journals(id, issue_id, created_on, content)" +
+				" SELECT (j->>'id')::BIGINT, c.id, (j->>'created_on')::TIMESTAMPTZ AT TIME ZONE 'UTC', j" +
+				" FROM " + source + " AS c, support.issue_journals(c.content) AS j" +
+				" WHERE j->>'id' IS NOT NULL" +
+				" ON CONFLICT (id) DO NOTHING";
+	}
 
-		sql.prepared(query.toString(), values, validResultHandler(handler));
+	/**
+	 * Put the journals selected with JOURNALS_FIELD back into the content of a bug tracker issue,
+	 * keeping the content as a string when it has been sent as a string by the sql module.
+	 */
+	static void mergeJournals(final JsonObject issue) {
+		Object journals = issue.removeField("journals");
+		Object content = issue.getValue("content");
+		JsonObject jsonContent = (content instanceof String) ? new JsonObject((String) content) :
+				(content instanceof JsonObject) ? (JsonObject) content : null;
+		if (jsonContent == null || jsonContent.getObject("issue") == null) {
+			return;
+		}
+		jsonContent.getObject("issue").putArray("journals", (journals instanceof String) ?
+				new JsonArray((String) journals) : (journals instanceof JsonArray) ? (JsonArray) journals : new JsonArray());
+		if (content instanceof String) {
+			issue.putString("content", jsonContent.encode());
+		} else {
+			issue.putObject("content", jsonContent);
+		}
 	}
 
-	@Override
-	public void getTicketIdAndSchoolId(final Number issueId, final Handler<Either<String, JsonObject>> handler) {
-		String query = "SELECT t.id, t.school_id, t.owner, t.locale, t.status FROM support.tickets AS t"
-				+ " INNER JOIN support.bug_tracker_issues AS i ON t.id = i.ticket_id"
-				+ " WHERE i.id = ?";
-		JsonArray values = new JsonArray().addNumber(issueId);
+	/**
+	 * Append filters to a query listing tickets (alias "t").
+	 *
+	 * @param hasWhere : true if query already contains a WHERE clause
+	 * @return true if query contains a WHERE clause
+	 */
+	static boolean appendListFilters(final StringBuilder query, final JsonArray values,
+			final JsonObject filters, final boolean hasWhere) {
+
+		String keyword = hasWhere ? " AND " : " WHERE ";
+		if(filters != null) {
+			JsonArray statuses = filters.getArray("status", null);
+			if(statuses != null && statuses.size() > 0) {
+				query.append(keyword).append("t.status IN (");
+				for (Object status : statuses) {
+					query.append("?,");
+					values.add(status);
+				}
+				query.deleteCharAt(query.length() - 1);
+				query.append(")");
+				keyword = " AND ";
+			}
 
-		sql.prepared(query.toString(), values, validUniqueResultHandler(handler));
-	};
+			JsonArray categories = filters.getArray("category", null);
+			if(categories != null && categories.size() > 0) {
+				query.append(keyword).append("t.category IN (");
+				for (Object category : categories) {
+					query.append("?,");
+					values.add(category);
+				}
+				query.deleteCharAt(query.length() - 1);
+				query.append(")");
+				keyword = " AND ";
+			}
+
+			JsonArray schools = filters.getArray("school_id", null);
+			if(schools != null && schools.size() > 0) {
+				query.append(keyword).append("t.school_id IN (");
+				for (Object school : schools) {
+					query.append("?,");
+					values.add(school);
+				}
+				query.deleteCharAt(query.length() - 1);
+				query.append(")");
+				keyword = " AND ";
+			}
+
+			String from = filters.getString("from", null);
+			if(from != null) {
+				query.append(keyword).append("t.modified >= ?::timestamp");
+				values.addString(from);
+				keyword = " AND ";
+			}
+
+			String to = filters.getString("to", null);
+			if(to != null) {
+				query.append(keyword).append("t.modified < ?::timestamp");
+				values.addString(to);
+				keyword = " AND ";
+			}
+		}
+		return " AND ".equals(keyword);
+	}
+
+	/**
+	 * Append keyset cursor, ordering and limit to a query listing tickets (alias "t").
+	 * Tickets are sorted by "modified" then "id" (descending), so that the last row of a page is the cursor of the next page.
+	 *
+	 * @param hasWhere : true if query already contains a WHERE clause
+	 */
+	static void appendListPage(final StringBuilder query, final JsonArray values,
+			final JsonObject filters, final boolean hasWhere) {
+
+		// Keyset pagination : only return tickets located after the last row of the previous page
+		String cursorModified = filters != null ? filters.getString("cursor_modified", null) : null;
+		Number cursorId = filters != null ? filters.getNumber("cursor_id") : null;
+		if(cursorModified != null && cursorId != null) {
+			query.append(hasWhere ? " AND " : " WHERE ").append("(t.modified, t.id) < (?::timestamp, ?)");
+			values.addString(cursorModified)
+				.addNumber(cursorId);
+		}
+
+		query.append(" ORDER BY t.modified DESC, t.id DESC");
+
+		if(filters != null && filters.getInteger("limit") != null) {
+			query.append(" LIMIT ?");
+			values.addNumber(filters.getInteger("limit"));
+		}
+	}
 
 	/**
 	 * If escalation status is "not_done" or "failed", and ticket status is new or opened,
@@ -301,16 +635,25 @@ public class TicketServiceSqlImpl extends SqlCrudService implements TicketServic
 			statements.prepared(upsertUserQuery, new JsonArray().add(user.getUserId()).add(user.getUsername()));
 
 			// 3. Insert bug tracker issue in ENT, so that local administrators can see it
-			String insertQuery = "INSERT INTO support.bug_tracker_issues(id, ticket_id, content, owner)"
-					+ " VALUES(?, ?, ?::JSON, ?)";
+			String insertQuery = "INSERT INTO support.bug_tracker_issues(id, ticket_id, content, content_hash, owner, updated_on, status_id, closed_on)"
+					+ " VALUES(?, ?, support.issue_header(?::JSONB), support.issue_content_hash(?::JSONB), ?,"
+					+ " ?::TIMESTAMPTZ AT TIME ZONE 'UTC', ?, ?::TIMESTAMPTZ AT TIME ZONE 'UTC')";
 
 			JsonArray insertValues = new JsonArray().add(issueId)
 					.add(parseId(ticketId))
 					.addObject(issue)
-					.add(user.getUserId());
+					.addObject(issue)
+					.add(user.getUserId())
+					.add(bugTrackerType.extractUpdatedOnFromIssue(issue))
+					.add(bugTrackerType.extractStatusIdFromIssue(issue))
+					.add(bugTrackerType.extractClosedOnFromIssue(issue));
 
 			statements.prepared(insertQuery, insertValues);
 
+			// Journals of the issue are stored separately
+			statements.prepared(insertJournalsQuery("(SELECT ?::BIGINT AS id, ?::JSONB AS content)"),
+					new JsonArray().add(issueId).addObject(issue));
+
 			// 4. Insert attachment (document from workspace) metadata
 			if(issue.size() > 0) {
 				JsonArray attachments = bugTrackerType.extractAttachmentsFromIssue(issue);
@@ -355,7 +698,7 @@ public class TicketServiceSqlImpl extends SqlCrudService implements TicketServic
 				}
 			}
 
-			sql.transaction(statements.build(), validUniqueResultHandler(1, handler));
+			sql.transaction(statements.build(), validUniqueResultHandler(1, searchResultCache.invalidateAfter(handler)));
 		}
 
 	}
@@ -377,37 +720,215 @@ public class TicketServiceSqlImpl extends SqlCrudService implements TicketServic
 	}
 
 	@Override
-	public void updateIssue(Number issueId, String content, Handler<Either<String, JsonObject>> handler) {
+	public void updateIssue(Number issueId, JsonObject issue, Handler<Either<String, JsonObject>> handler) {
 		StringBuilder query = new StringBuilder();
 		JsonArray values = new JsonArray();
 
 		// WITH clause to RETURN previous status_id
 		query.append("WITH old_issue AS (")
-			.append(" SELECT content").append(bugTrackerType.getStatusIdFromPostgresqlJson()).append(" AS status_id")
+			.append(" SELECT status_id")
 			.append(" FROM support.bug_tracker_issues")
 			.append(" WHERE id = ?)");
 		values.addNumber(issueId);
 
+		query.append(", new_journals AS (")
+			.append(insertJournalsQuery("(SELECT ?::BIGINT AS id, ?::JSONB AS content)"))
+			.append(")");
+		values.addNumber(issueId).addString(issue.toString());
+
 		query.append(" UPDATE support.bug_tracker_issues")
-			.append(" SET content = ?::JSON, modified = now()")
+			.append(" SET content = support.issue_header(?::JSONB), content_hash = support.issue_content_hash(?::JSONB), modified = now(),")
+			.append(" updated_on = ?::TIMESTAMPTZ AT TIME ZONE 'UTC', status_id = ?, closed_on = ?::TIMESTAMPTZ AT TIME ZONE 'UTC'")
 			.append(" WHERE id = ?")
 			.append(" RETURNING (SELECT status_id FROM old_issue)");
 
-		values.addString(content)
+		values.addString(issue.toString())
+			.addString(issue.toString())
+			.add(bugTrackerType.extractUpdatedOnFromIssue(issue))
+			.add(bugTrackerType.extractStatusIdFromIssue(issue))
+			.add(bugTrackerType.extractClosedOnFromIssue(issue))
 			.addNumber(issueId);
 
-		sql.prepared(query.toString(), values, validUniqueResultHandler(handler));
+		sql.prepared(query.toString(), values, validUniqueResultHandler(searchResultCache.invalidateAfter(handler)));
+	}
+
+	@Override
+	public void updateIssues(JsonArray issues, Handler<Either<String, JsonArray>> handler) {
+		StringBuilder query = new StringBuilder();
+		JsonArray values = new JsonArray();
+
+		query.append("WITH new_issues(id, content, updated_on, status_id, closed_on) AS (VALUES ");
+		for (Object o : issues) {
+			if (!(o instanceof JsonObject)) continue;
+			JsonObject issue = (JsonObject) o;
+			query.append("(?::BIGINT, ?::JSONB, ?::TIMESTAMPTZ AT TIME ZONE 'UTC', ?::BIGINT, ?::TIMESTAMPTZ AT TIME ZONE 'UTC'),");
+			values.addNumber(bugTrackerType.extractIdFromIssue(issue))
+				.addString(issue.toString())
+				.add(bugTrackerType.extractUpdatedOnFromIssue(issue))
+				.add(bugTrackerType.extractStatusIdFromIssue(issue))
+				.add(bugTrackerType.extractClosedOnFromIssue(issue));
+		}
+		query.deleteCharAt(query.length() - 1);
+		query.append(")");
+
+		query.append(", locked_issues AS (")
+			.append(" SELECT n.*, support.issue_content_hash(n.content) AS content_hash, i.content_hash AS old_content_hash,")
+			.append(" i.status_id AS old_status_id, i.ticket_id")
+			.append(" FROM new_issues AS n")
+			.append(" INNER JOIN support.bug_tracker_issues AS i ON i.id = n.id")
+			.append(" FOR UPDATE OF i)");
+
+		// issues whose status, journals, attachments and assignee have not changed are neither rewritten nor notified
+		query.append(", changed_issues AS (")
+			.append(" SELECT * FROM locked_issues")
+			.append(" WHERE old_content_hash IS DISTINCT FROM content_hash)");
+
+		// dates and status are refreshed whenever they have changed : they give the watermark and the tiers of the synchronization
+		query.append(", updated_issues AS (")
+			.append(" UPDATE support.bug_tracker_issues AS i")
+			.append(" SET content = CASE WHEN c.old_content_hash IS DISTINCT FROM c.content_hash")
+			.append(" THEN support.issue_header(c.content) ELSE i.content END,")
+			.append(" content_hash = c.content_hash, modified = now(),")
+			.append(" updated_on = c.updated_on, status_id = c.status_id, closed_on = c.closed_on")
+			.append(" FROM locked_issues AS c")
+			.append(" WHERE i.id = c.id AND (c.old_content_hash IS DISTINCT FROM c.content_hash")
+			.append(" OR i.updated_on IS DISTINCT FROM c.updated_on OR i.status_id IS DISTINCT FROM c.status_id")
+			.append(" OR i.closed_on IS DISTINCT FROM c.closed_on)")
+			.append(" RETURNING i.id)");
+
+		query.append(", new_journals AS (")
+			.append(insertJournalsQuery("changed_issues"))
+			.append(")");
+
+		// issue_update_date is stored in the time zone of the server
+		query.append(", updated_tickets AS (")
+			.append(" UPDATE support.tickets AS t")
+			.append(" SET issue_update_date = (c.updated_on AT TIME ZONE 'UTC') AT TIME ZONE ?")
+			.append(" FROM locked_issues AS c")
+			.append(" WHERE t.id = c.ticket_id")
+			.append(" AND t.issue_update_date IS DISTINCT FROM (c.updated_on AT TIME ZONE 'UTC') AT TIME ZONE ?")
+			.append(" RETURNING t.id)");
+
+		// statements of the WITH clause are run even if their result is not read
+		query.append(" SELECT c.id, c.old_status_id AS status_id, t.id AS ticket_id, t.school_id, t.owner, t.locale, t.status")
+			.append(" FROM changed_issues AS c")
+			.append(" INNER JOIN support.tickets AS t ON t.id = c.ticket_id");
+
+		values.addString(TimeZone.getDefault().getID())
+			.addString(TimeZone.getDefault().getID());
+
+		sql.prepared(query.toString(), values, validResultHandler(searchResultCache.invalidateAfter(handler)));
+	}
+
+	@Override
+	public void createTicketHistos(JsonArray histos, int eventType, Handler<Either<String, JsonObject>> handler) {
+		SqlStatementsBuilder s = new SqlStatementsBuilder();
+
+		StringBuilder insertQuery = new StringBuilder("INSERT INTO support.tickets_histo(ticket_id, event, event_date, status, user_id, event_type)")
+			.append(" SELECT h.ticket_id, h.event, current_timestamp, h.status, NULL, ?")
+			.append(" FROM (VALUES ");
+		StringBuilder updateQuery = new StringBuilder("UPDATE support.tickets SET event_count = event_count + 1 WHERE id IN (");
+		JsonArray insertValues = new JsonArray().addNumber(eventType);
+		JsonArray updateValues = new JsonArray();
+		for (Object o : histos) {
+			if (!(o instanceof JsonObject)) continue;
+			JsonObject histo = (JsonObject) o;
+			insertQuery.append("(?::BIGINT, ?, ?::INTEGER),");
+			insertValues.addNumber(histo.getNumber("ticket_id"))
+				.addString(histo.getString("event"))
+				.addNumber(histo.getNumber("status"));
+			updateQuery.append("?,");
+			updateValues.addNumber(histo.getNumber("ticket_id"));
+		}
+		insertQuery.deleteCharAt(insertQuery.length() - 1);
+		insertQuery.append(") AS h(ticket_id, event, status)");
+		updateQuery.deleteCharAt(updateQuery.length() - 1);
+		updateQuery.append(")");
+
+		s.prepared(insertQuery.toString(), insertValues);
+		s.prepared(updateQuery.toString(), updateValues);
+
+		sql.transaction(s.build(), validUniqueResultHandler(1, handler));
 	}
 
 	@Override
 	public void getLastIssuesUpdate(Handler<Either<String, JsonArray>> handler) {
-		String query = "SELECT max(content"
-				+ bugTrackerType.getLastIssueUpdateFromPostgresqlJson()
-				+ ") AS last_update FROM support.bug_tracker_issues";
+		String query = "SELECT to_char(max(updated_on), '" + ISSUE_DATE_FORMAT + "') AS last_update"
+				+ " FROM support.bug_tracker_issues";
 
 		sql.raw(query, validResultHandler(handler));
 	}
 
+	@Override
+	public void getLastSyncRun(String mode, Handler<Either<String, JsonObject>> handler) {
+		String query = "SELECT id, mode, status,"
+				+ " to_char(watermark_end, '" + ISSUE_DATE_FORMAT + "') AS watermark_end,"
+				+ " to_char(cursor_since, '" + ISSUE_DATE_FORMAT + "') AS cursor_since, cursor_offset"
+				+ " FROM support.sync_runs"
+				+ " WHERE mode = ?"
+				+ " ORDER BY id DESC LIMIT 1";
+
+		sql.prepared(query, new JsonArray().addString(mode), validUniqueResultHandler(handler));
+	}
+
+	@Override
+	public void createSyncRun(String mode, String since, int offset, String nextSince, Handler<Either<String, JsonObject>> handler) {
+		String query = "INSERT INTO support.sync_runs(mode, watermark_start, watermark_end, cursor_since, cursor_offset)"
+				+ " VALUES (?, ?::TIMESTAMPTZ AT TIME ZONE 'UTC', ?::TIMESTAMPTZ AT TIME ZONE 'UTC', ?::TIMESTAMPTZ AT TIME ZONE 'UTC', ?)"
+				+ " RETURNING id";
+		JsonArray values = new JsonArray().addString(mode)
+				.add(since)
+				.add(nextSince)
+				.add(since)
+				.addNumber(offset);
+
+		sql.prepared(query, values, validUniqueResultHandler(handler));
+	}
+
+	@Override
+	public void updateSyncRun(Number runId, String since, int offset, JsonObject stats, Handler<Either<String, JsonObject>> handler) {
+		String query = "UPDATE support.sync_runs"
+				+ " SET cursor_since = COALESCE(?::TIMESTAMPTZ AT TIME ZONE 'UTC', cursor_since),"
+				+ " cursor_offset = CASE WHEN ?::TEXT IS NULL THEN cursor_offset ELSE ? END,"
+				+ " issues_scanned = issues_scanned + ?, issues_updated = issues_updated + ?, issues_failed = issues_failed + ?"
+				+ " WHERE id = ?";
+		JsonArray values = new JsonArray().add(since)
+				.add(since)
+				.addNumber(offset)
+				.addNumber(stats.getInteger("scanned", 0))
+				.addNumber(stats.getInteger("updated", 0))
+				.addNumber(stats.getInteger("failed", 0))
+				.addNumber(runId);
+
+		sql.prepared(query, values, validRowsResultHandler(handler));
+	}
+
+	@Override
+	public void endSyncRun(Number runId, boolean success, Handler<Either<String, JsonObject>> handler) {
+		String query = "UPDATE support.sync_runs"
+				+ " SET status = ?, ended = NOW(), duration = NOW() - started"
+				+ " WHERE id = ?";
+		JsonArray values = new JsonArray().addString(success ? "succeeded" : "failed").addNumber(runId);
+
+		sql.prepared(query, values, validRowsResultHandler(handler));
+	}
+
+	@Override
+	public void acquireSyncLease(String instanceId, long leaseSeconds, Handler<Either<String, JsonObject>> handler) {
+		// The transaction-level advisory lock makes concurrent instances give up at once instead of waiting for the row lock.
+		// It is released at the end of the statement, the lease itself is the row.
+		String query = "UPDATE support.sync_leader"
+				+ " SET owner = ?, expires = NOW() + ? * INTERVAL '1 second'"
+				+ " WHERE id = 1 AND (owner = ? OR expires < NOW())"
+				+ " AND pg_try_advisory_xact_lock(hashtext('support.sync_leader'))"
+				+ " RETURNING owner, expires";
+		JsonArray values = new JsonArray().addString(instanceId)
+				.addNumber(leaseSeconds)
+				.addString(instanceId);
+
+		sql.prepared(query, values, validUniqueResultHandler(handler));
+	}
+
 	/**
 	 * 	@inheritDoc
 	 */
@@ -444,7 +965,43 @@ public class TicketServiceSqlImpl extends SqlCrudService implements TicketServic
 	}
 
 	@Override
-	public void getIssue(String ticketId, Handler<Either<String, JsonArray>> handler) {
+	public void listTrackedIssueIds(Number closedStatusId, Handler<Either<String, JsonArray>> handler) {
+		String query = "SELECT id FROM support.bug_tracker_issues"
+				+ " WHERE closed_on IS NULL AND (status_id IS NULL OR status_id <> ?)"
+				+ " ORDER BY id";
+		JsonArray values = new JsonArray().addNumber(closedStatusId);
+
+		sql.prepared(query, values, validResultHandler(handler));
+	}
+
+	@Override
+	public void listTierIssueIds(String tier, int hotAgeHours, int warmAgeDays, Number closedStatusId,
+			Handler<Either<String, JsonArray>> handler) {
+		// updated_on is stored in UTC
+		String query = "SELECT id FROM ("
+				+ " SELECT i.id, CASE"
+				+ " WHEN i.closed_on IS NOT NULL OR i.status_id = ? OR t.status = ? THEN 'cold'"
+				+ " WHEN t.status <> ? AND (i.updated_on IS NULL"
+				+ " OR i.updated_on > (NOW() AT TIME ZONE 'UTC') - ? * INTERVAL '1 hour') THEN 'hot'"
+				+ " WHEN i.updated_on IS NULL OR i.updated_on > (NOW() AT TIME ZONE 'UTC') - ? * INTERVAL '1 day' THEN 'warm'"
+				+ " ELSE 'cold' END AS tier"
+				+ " FROM support.bug_tracker_issues AS i"
+				+ " INNER JOIN support.tickets AS t ON t.id = i.ticket_id"
+				+ ") AS tiers"
+				+ " WHERE tier = ?"
+				+ " ORDER BY id";
+		JsonArray values = new JsonArray().addNumber(closedStatusId)
+				.addNumber(TicketStatus.CLOSED.status())
+				.addNumber(TicketStatus.RESOLVED.status())
+				.addNumber(hotAgeHours)
+				.addNumber(warmAgeDays)
+				.addString(tier);
+
+		sql.prepared(query, values, validResultHandler(handler));
+	}
+
+	@Override
+	public void getIssue(String ticketId, final Handler<Either<String, JsonArray>> handler) {
 		/* Field "attachments" will contain for instance :
 		 *  [{"id":931,"document_id":null,"gridfs_id":"13237cd7-9567-4810-a85e-39414093e3b5"},
 			 {"id":932,"document_id":null,"gridfs_id":"17223f70-d9a8-4983-92b1-d867fc881d44"},
@@ -453,14 +1010,27 @@ public class TicketServiceSqlImpl extends SqlCrudService implements TicketServic
 		StringBuilder query = new StringBuilder("SELECT i.id, i.content,")
 			.append(" CASE WHEN COUNT(a.id) = 0 THEN '[]'")
 			.append(" ELSE json_agg((a.id, a.document_id, a.gridfs_id)::support.bug_tracker_attachment_tuple)")
-			.append(" END AS attachments")
+			.append(" END AS attachments,")
+			.append(JOURNALS_FIELD)
 			.append(" FROM support.bug_tracker_issues AS i")
 			.append(" LEFT JOIN support.bug_tracker_attachments AS a ON i.id = a.issue_id")
 			.append(" WHERE i.ticket_id = ?")
 			.append(" GROUP BY i.id");
 		JsonArray values = new JsonArray().add(parseId(ticketId));
 
-		sql.prepared(query.toString(), values, validResultHandler(handler));
+		sql.prepared(query.toString(), values, validResultHandler(new Handler<Either<String, JsonArray>>() {
+			@Override
+			public void handle(Either<String, JsonArray> event) {
+				if (event.isRight()) {
+					for (Object issue : event.right().getValue()) {
+						if (issue instanceof JsonObject) {
+							mergeJournals((JsonObject) issue);
+						}
+					}
+				}
+				handler.handle(event);
+			}
+		}));
 	}
 
 	@Override
@@ -527,7 +1097,7 @@ public class TicketServiceSqlImpl extends SqlCrudService implements TicketServic
         query.deleteCharAt(query.length() - 1);
         query.append(")");
 
-        sql.prepared(query.toString(), values, validUniqueResultHandler(handler));
+        sql.prepared(query.toString(), values, validUniqueResultHandler(searchResultCache.invalidateAfter(handler)));
     }
 
     /**
@@ -557,31 +1127,6 @@ public class TicketServiceSqlImpl extends SqlCrudService implements TicketServic
         sql.prepared(query, values, validUniqueResultHandler(handler));
     }
 
-    /**
-     * Updates the ticket table, sets the issueUpdateDate field to the last update date managed
-     * @param ticketId
-     * @param updateDate
-     */
-    public void updateTicketIssueUpdateDate(Long ticketId, String updateDate, Handler<Either<String, JsonObject>> handler){
-        String query = "update support.tickets set issue_update_date = to_timestamp(?,?)::timestamp where id = ? ";
-        JsonArray values = new JsonArray();
-        final DateFormat df = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
-        df.setTimeZone(TimeZone.getTimeZone("GMT"));
-        Date d = null;
-        try {
-            d = df.parse(updateDate);
-        } catch (ParseException e) {
-            e.printStackTrace();
-        }
-        Format formatter = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-
-        values.add(formatter.format(d));
-        values.add("YYYY-MM-dd HH24:MI:SS");
-        values.add(ticketId);
-
-        sql.prepared(query, values, validUniqueResultHandler(handler));
-    }
-
     /**
      *
      * @param ticketId : id of the ticket historized
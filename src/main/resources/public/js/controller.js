@@ -193,14 +193,9 @@ function SupportController($scope, template, model, route, $location, orderByFil
     		return;
     	}
 		template.open('main', 'view-ticket');
-		$scope.ticket.getAttachments();
-		$scope.ticket.getComments(function() {
-            $scope.initHisto(ticketId);
-        });
-        model.getProfile($scope.ticket.owner, function(result) {
-            $scope.ticket.profile = result.profile;
-        });
-		$scope.ticket.getBugTrackerIssue();
+		$scope.ticket.getFull(function() {
+			$scope.displayHisto(ticketId, $scope.ticket.events);
+		});
 	};
 
     $scope.viewTicket = function(ticketId) {
@@ -210,56 +205,60 @@ function SupportController($scope, template, model, route, $location, orderByFil
     // called when opening ticket and updating
     $scope.initHisto = function(ticketId) {
         model.getEvents(ticketId, function(result) {
-            template.open('histo-ticket', 'histo-ticket');
-            $scope.events = result;
-
-            $scope.events.forEach(function (event){
-                var comment = {};
-                comment.owner = event.user_id;
-                comment.owner_name = event.username;
-                comment.created = event.event_date;
-                comment.content = event.event;
-                comment.status = $scope.getStatusLabel(event.status);
-                comment.isHistory = true;
-                comment.type = event.event_type;
-                $scope.ticket.comments.push(comment);
-            });
-
-            // adding the comments from bug tracker.
-            if( $scope.isBugTrackerCommDirect ){
-                if( $scope.ticket.issue && $scope.ticket.issue.journals && $scope.ticket.issue.journals.length > 0 ) {
-                    //get the bug tracker author name
-                    $scope.bugTrackerAuthor = $scope.ticket.issue.author.name;
-                    $scope.ticket.issue.journals.forEach( function( btComment) {
-                       if( btComment.notes != "" ) {
-                           //alert(btComment.notes);
-                          // alert(btComment.created_on);
-                           if(btComment.user.name != $scope.bugTrackerAuthor){
-                               var comment = {};
-                               var time = new Date(btComment.created_on);
-                               var tzoffset = (new Date()).getTimezoneOffset() * 60000; //offset in milliseconds
-                               var localISOTime = (new Date(time - tzoffset)).toISOString().slice(0,-1);
-                               comment.created = localISOTime;
-                               comment.content = btComment.notes;
-                               comment.type = 5;
-                               comment.isHistory = true;
-                               comment.owner_name = btComment.user.name;
-                               $scope.ticket.comments.push(comment);
-                           };
-                       }
-                    });
-                }
-            }
-
-            $scope.ticketHisto = ticketId;
-            $scope.$apply();
-            //$scope.ticketLib = ticket.subject;
+            $scope.displayHisto(ticketId, result);
         }, function (e) {
             $scope.processingData = false;
             validationError(e);
         });
     };
 
+    $scope.displayHisto = function(ticketId, result) {
+        template.open('histo-ticket', 'histo-ticket');
+        $scope.events = result;
+
+        $scope.events.forEach(function (event){
+            var comment = {};
+            comment.owner = event.user_id;
+            comment.owner_name = event.username;
+            comment.created = event.event_date;
+            comment.content = event.event;
+            comment.status = $scope.getStatusLabel(event.status);
+            comment.isHistory = true;
+            comment.type = event.event_type;
+            $scope.ticket.comments.push(comment);
+        });
+
+        // adding the comments from bug tracker.
+        if( $scope.isBugTrackerCommDirect ){
+            if( $scope.ticket.issue && $scope.ticket.issue.journals && $scope.ticket.issue.journals.length > 0 ) {
+                //get the bug tracker author name
+                $scope.bugTrackerAuthor = $scope.ticket.issue.author.name;
+                $scope.ticket.issue.journals.forEach( function( btComment) {
+                   if( btComment.notes != "" ) {
+                       //alert(btComment.notes);
+                      // alert(btComment.created_on);
+                       if(btComment.user.name != $scope.bugTrackerAuthor){
+                           var comment = {};
+                           var time = new Date(btComment.created_on);
+                           var tzoffset = (new Date()).getTimezoneOffset() * 60000; //offset in milliseconds
+                           var localISOTime = (new Date(time - tzoffset)).toISOString().slice(0,-1);
+                           comment.created = localISOTime;
+                           comment.content = btComment.notes;
+                           comment.type = 5;
+                           comment.isHistory = true;
+                           comment.owner_name = btComment.user.name;
+                           $scope.ticket.comments.push(comment);
+                       };
+                   }
+                });
+            }
+        }
+
+        $scope.ticketHisto = ticketId;
+        $scope.$apply();
+        //$scope.ticketLib = ticket.subject;
+    };
+
     // called when opening history view
     $scope.showHisto = function(ticket, ticketId) {
         model.getEvents(ticketId, function(result) {
@@ -162,28 +162,32 @@ Ticket.prototype.getAttachments = function(callback) {
 	}.bind(this));
 };
 
+// Load ticket, comments, attachments, events, bug tracker issue and owner's profile in one request
+Ticket.prototype.getFull = function(callback) {
+	http().get('/support/ticket/' + this.id + '/full').done(function(result){
+		this.description = result.description;
+		this.profile = result.profile;
+		if(result.comments && result.comments.length > 0) {
+			this.comments.load(result.comments);
+		}
+		if(result.attachments && result.attachments.length > 0) {
+			this.attachments.load(result.attachments);
+		}
+		if(result.issues && result.issues.length > 0) {
+			this.loadIssue(result.issues[0].content, result.issues[0].attachments);
+		}
+		this.events = result.events;
+		if(typeof callback === 'function'){
+			callback();
+		}
+	}.bind(this));
+};
+
 Ticket.prototype.getBugTrackerIssue = function(callback) {
 	http().get('/support/ticket/' + this.id + '/bugtrackerissue').done(function(result){
         if(result.length > 0 && result[0] && result[0].content) {
 			// JSON type in PostgreSQL is sent as a JSON string. Parse it
-			var content = JSON.parse(result[0].content);
-			if(content && content.issue) {
-
-                this.issue = content.issue;
-				
-				var attachments = JSON.parse(result[0].attachments);
-				if(attachments && attachments.length > 0) {
-					// add fields "document_id" and "gridfs_id" to each attachment in variable "content.issue"
-					this.issue.attachments = _.map(this.issue.attachments, function(pAttachment) {
-						var anAttachment = _.find(attachments, function(att) {
-							 return att.id === pAttachment.id;
-						});
-						pAttachment.document_id = anAttachment.document_id;
-						pAttachment.gridfs_id = anAttachment.gridfs_id;
-						return pAttachment;
-					});
-				}
-			}
+			this.loadIssue(JSON.parse(result[0].content), JSON.parse(result[0].attachments));
 		}
 		if(typeof callback === 'function'){
 			callback();
@@ -191,6 +195,24 @@ Ticket.prototype.getBugTrackerIssue = function(callback) {
 	}.bind(this));
 };
 
+Ticket.prototype.loadIssue = function(content, attachments) {
+	if(content && content.issue) {
+		this.issue = content.issue;
+
+		if(attachments && attachments.length > 0) {
+			// add fields "document_id" and "gridfs_id" to each attachment in variable "content.issue"
+			this.issue.attachments = _.map(this.issue.attachments, function(pAttachment) {
+				var anAttachment = _.find(attachments, function(att) {
+					 return att.id === pAttachment.id;
+				});
+				pAttachment.document_id = anAttachment.document_id;
+				pAttachment.gridfs_id = anAttachment.gridfs_id;
+				return pAttachment;
+			});
+		}
+	}
+};
+
 Ticket.prototype.commentIssue = function(callback, errorCallback) {
 	http().postJson('/support/issue/' + this.issue.id + '/comment', {content: this.issue.newComment})
 	.done(function(result){
@@ -215,7 +237,8 @@ model.build = function() {
 
 	this.collection(Ticket, {
 		sync : function() {
-			http().get('/support/tickets').done(function(tickets) {
+			// descriptions are not listed : they are loaded when a ticket is opened
+			http().get('/support/tickets?fields=summary').done(function(tickets) {
 				this.load(tickets);
 			}.bind(this));
 		}, 
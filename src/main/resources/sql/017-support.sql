@@ -0,0 +1,3 @@
+CREATE INDEX tickets_school_id_modified_idx ON support.tickets (school_id, modified DESC, id DESC);
+CREATE INDEX tickets_owner_modified_idx ON support.tickets (owner, modified DESC, id DESC);
+CREATE INDEX bug_tracker_issues_ticket_id_idx ON support.bug_tracker_issues (ticket_id);
@@ -0,0 +1,49 @@
+CREATE TABLE support.ticket_counters (
+	school_id VARCHAR(36) NOT NULL,
+	status SMALLINT NOT NULL,
+	category VARCHAR(255) NOT NULL,
+	count BIGINT NOT NULL DEFAULT 0,
+	CONSTRAINT ticket_counters_pk PRIMARY KEY (school_id, status, category)
+);
+
+CREATE FUNCTION support.add_ticket_counter(p_school_id VARCHAR, p_status SMALLINT, p_category VARCHAR, delta BIGINT) RETURNS VOID AS
+$$
+BEGIN
+    LOOP
+        UPDATE support.ticket_counters SET count = count + delta
+        WHERE school_id = p_school_id AND status = p_status AND category = p_category;
+        IF found THEN
+            RETURN;
+        END IF;
+        BEGIN
+            INSERT INTO support.ticket_counters(school_id, status, category, count) VALUES (p_school_id, p_status, p_category, delta);
+            RETURN;
+        EXCEPTION WHEN unique_violation THEN
+        END;
+    END LOOP;
+END;
+$$
+LANGUAGE plpgsql;
+
+-- Counters are updated in the transaction of the statement that modifies the ticket
+CREATE OR REPLACE FUNCTION support.update_ticket_counters() RETURNS TRIGGER AS $$
+    BEGIN
+        IF (TG_OP = 'UPDATE' AND OLD.school_id = NEW.school_id AND OLD.status = NEW.status AND OLD.category = NEW.category) THEN
+            RETURN NULL;
+        END IF;
+        IF (TG_OP = 'UPDATE' OR TG_OP = 'DELETE') THEN
+            PERFORM support.add_ticket_counter(OLD.school_id, OLD.status, OLD.category, -1);
+        END IF;
+        IF (TG_OP = 'INSERT' OR TG_OP = 'UPDATE') THEN
+            PERFORM support.add_ticket_counter(NEW.school_id, NEW.status, NEW.category, 1);
+        END IF;
+        RETURN NULL;
+    END;
+$$ LANGUAGE plpgsql;
+
+INSERT INTO support.ticket_counters(school_id, status, category, count)
+SELECT school_id, status, category, count(*) FROM support.tickets GROUP BY school_id, status, category;
+
+CREATE TRIGGER ticket_counters_trigger
+AFTER INSERT OR DELETE OR UPDATE OF school_id, status, category ON support.tickets
+    FOR EACH ROW EXECUTE PROCEDURE support.update_ticket_counters();
@@ -0,0 +1,14 @@
+ALTER TABLE support.bug_tracker_issues
+ADD COLUMN updated_on TIMESTAMP,
+ADD COLUMN status_id BIGINT,
+ADD COLUMN closed_on TIMESTAMP;
+
+-- Dates are stored in UTC, as sent by the bug tracker
+UPDATE support.bug_tracker_issues
+SET updated_on = (content->'issue'->>'updated_on')::TIMESTAMPTZ AT TIME ZONE 'UTC',
+	status_id = (content#>>'{issue,status,id}')::BIGINT,
+	closed_on = (content->'issue'->>'closed_on')::TIMESTAMPTZ AT TIME ZONE 'UTC';
+
+CREATE INDEX bug_tracker_issues_updated_on_idx ON support.bug_tracker_issues (updated_on);
+CREATE INDEX bug_tracker_issues_status_id_idx ON support.bug_tracker_issues (status_id);
+CREATE INDEX bug_tracker_issues_closed_on_idx ON support.bug_tracker_issues (closed_on);
@@ -0,0 +1,3 @@
+-- JSONB is stored parsed : issues are no longer re-parsed each time they are read. Requires PostgreSQL 9.4
+ALTER TABLE support.bug_tracker_issues
+ALTER COLUMN content TYPE JSONB USING content::JSONB;
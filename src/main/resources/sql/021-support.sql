@@ -0,0 +1,38 @@
+-- Text search configuration for french, ignoring accents
+CREATE TEXT SEARCH CONFIGURATION support.french_unaccent (COPY = pg_catalog.french);
+ALTER TEXT SEARCH CONFIGURATION support.french_unaccent
+ALTER MAPPING FOR hword, hword_part, word WITH unaccent, french_stem;
+
+-- Search vectors are kept out of table tickets, so that they are not returned by queries selecting all columns of a ticket
+CREATE TABLE support.tickets_search (
+	ticket_id BIGINT PRIMARY KEY,
+	search_vector TSVECTOR NOT NULL,
+	CONSTRAINT ticket_fk FOREIGN KEY(ticket_id) REFERENCES support.tickets(id) ON UPDATE CASCADE ON DELETE CASCADE
+);
+
+CREATE OR REPLACE FUNCTION support.ticket_search_vector(subject VARCHAR, description TEXT) RETURNS TSVECTOR AS $$
+    SELECT setweight(to_tsvector('support.french_unaccent', coalesce($1, '')), 'A')
+        || setweight(to_tsvector('support.french_unaccent', coalesce($2, '')), 'B');
+$$ LANGUAGE sql IMMUTABLE;
+
+CREATE OR REPLACE FUNCTION support.update_ticket_search_vector() RETURNS TRIGGER AS $$
+    BEGIN
+        IF (TG_OP = 'INSERT') THEN
+            INSERT INTO support.tickets_search (ticket_id, search_vector)
+            VALUES (NEW.id, support.ticket_search_vector(NEW.subject, NEW.description));
+        ELSE
+            UPDATE support.tickets_search SET search_vector = support.ticket_search_vector(NEW.subject, NEW.description)
+            WHERE ticket_id = NEW.id;
+        END IF;
+        RETURN NULL;
+    END;
+$$ LANGUAGE plpgsql;
+
+INSERT INTO support.tickets_search (ticket_id, search_vector)
+SELECT id, support.ticket_search_vector(subject, description) FROM support.tickets;
+
+CREATE INDEX tickets_search_vector_idx ON support.tickets_search USING GIN (search_vector);
+
+CREATE TRIGGER ticket_search_vector_trigger
+AFTER INSERT OR UPDATE OF subject, description ON support.tickets
+    FOR EACH ROW EXECUTE PROCEDURE support.update_ticket_search_vector();
@@ -0,0 +1,8 @@
+CREATE EXTENSION IF NOT EXISTS pg_trgm;
+
+-- unaccent is only STABLE (its dictionary can be changed), it cannot be used in an index expression
+CREATE OR REPLACE FUNCTION support.immutable_unaccent(TEXT) RETURNS TEXT AS $$
+    SELECT public.unaccent('public.unaccent', $1);
+$$ LANGUAGE sql IMMUTABLE;
+
+CREATE INDEX tickets_trgm_idx ON support.tickets USING GIN (support.immutable_unaccent(subject || ' ' || description) gin_trgm_ops);
@@ -0,0 +1,64 @@
+-- Search vectors of comments and of bug tracker journals, maintained by triggers. Field ticket_id groups them by ticket
+CREATE TABLE support.comments_search (
+	comment_id BIGINT PRIMARY KEY,
+	ticket_id BIGINT NOT NULL,
+	search_vector TSVECTOR NOT NULL,
+	CONSTRAINT comment_fk FOREIGN KEY(comment_id) REFERENCES support.comments(id) ON UPDATE CASCADE ON DELETE CASCADE
+);
+
+CREATE TABLE support.issues_search (
+	issue_id BIGINT PRIMARY KEY,
+	ticket_id BIGINT NOT NULL,
+	search_vector TSVECTOR NOT NULL,
+	CONSTRAINT issue_fk FOREIGN KEY(issue_id) REFERENCES support.bug_tracker_issues(id) ON UPDATE CASCADE ON DELETE CASCADE
+);
+
+-- Notes of the journals of a bug tracker issue
+CREATE OR REPLACE FUNCTION support.issue_search_vector(content JSONB) RETURNS TSVECTOR AS $$
+    SELECT to_tsvector('support.french_unaccent', coalesce(string_agg(j->>'notes', ' '), ''))
+    FROM jsonb_array_elements(CASE WHEN jsonb_typeof($1->'issue'->'journals') = 'array'
+        THEN $1->'issue'->'journals' ELSE '[]'::JSONB END) AS j;
+$$ LANGUAGE sql IMMUTABLE;
+
+CREATE OR REPLACE FUNCTION support.update_comment_search_vector() RETURNS TRIGGER AS $$
+    BEGIN
+        IF (TG_OP = 'INSERT') THEN
+            INSERT INTO support.comments_search (comment_id, ticket_id, search_vector)
+            VALUES (NEW.id, NEW.ticket_id, to_tsvector('support.french_unaccent', coalesce(NEW.content, '')));
+        ELSE
+            UPDATE support.comments_search SET search_vector = to_tsvector('support.french_unaccent', coalesce(NEW.content, ''))
+            WHERE comment_id = NEW.id;
+        END IF;
+        RETURN NULL;
+    END;
+$$ LANGUAGE plpgsql;
+
+CREATE OR REPLACE FUNCTION support.update_issue_search_vector() RETURNS TRIGGER AS $$
+    BEGIN
+        IF (TG_OP = 'INSERT') THEN
+            INSERT INTO support.issues_search (issue_id, ticket_id, search_vector)
+            VALUES (NEW.id, NEW.ticket_id, support.issue_search_vector(NEW.content));
+        ELSE
+            UPDATE support.issues_search SET search_vector = support.issue_search_vector(NEW.content)
+            WHERE issue_id = NEW.id;
+        END IF;
+        RETURN NULL;
+    END;
+$$ LANGUAGE plpgsql;
+
+INSERT INTO support.comments_search (comment_id, ticket_id, search_vector)
+SELECT id, ticket_id, to_tsvector('support.french_unaccent', coalesce(content, '')) FROM support.comments;
+
+INSERT INTO support.issues_search (issue_id, ticket_id, search_vector)
+SELECT id, ticket_id, support.issue_search_vector(content) FROM support.bug_tracker_issues;
+
+CREATE INDEX comments_search_vector_idx ON support.comments_search USING GIN (search_vector);
+CREATE INDEX issues_search_vector_idx ON support.issues_search USING GIN (search_vector);
+
+CREATE TRIGGER comment_search_vector_trigger
+AFTER INSERT OR UPDATE OF content ON support.comments
+    FOR EACH ROW EXECUTE PROCEDURE support.update_comment_search_vector();
+
+CREATE TRIGGER issue_search_vector_trigger
+AFTER INSERT OR UPDATE OF content ON support.bug_tracker_issues
+    FOR EACH ROW EXECUTE PROCEDURE support.update_issue_search_vector();
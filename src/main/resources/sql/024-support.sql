@@ -0,0 +1,17 @@
+-- Journal of the synchronizations with the bug tracker.
+-- The last run gives the watermark of the next one : "watermark_end" if it succeeded, else its progress ("cursor_since", "cursor_offset")
+CREATE TABLE support.sync_runs(
+	id BIGSERIAL PRIMARY KEY,
+	mode VARCHAR(16) NOT NULL,
+	status VARCHAR(16) NOT NULL DEFAULT 'running',
+	started TIMESTAMP NOT NULL DEFAULT NOW(),
+	ended TIMESTAMP,
+	duration INTERVAL,
+	watermark_start TIMESTAMP,
+	watermark_end TIMESTAMP,
+	cursor_since TIMESTAMP,
+	cursor_offset INTEGER NOT NULL DEFAULT 0,
+	issues_scanned INTEGER NOT NULL DEFAULT 0,
+	issues_updated INTEGER NOT NULL DEFAULT 0,
+	issues_failed INTEGER NOT NULL DEFAULT 0
+);
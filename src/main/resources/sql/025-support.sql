@@ -0,0 +1,9 @@
+-- Lease of the synchronization with the bug tracker : only the instance holding a lease that has not expired runs the synchronization.
+-- Session advisory locks cannot be used, because the connections of the sql module are pooled.
+CREATE TABLE support.sync_leader(
+	id SMALLINT PRIMARY KEY DEFAULT 1 CHECK (id = 1),
+	owner VARCHAR(36) NOT NULL,
+	expires TIMESTAMP NOT NULL
+);
+
+INSERT INTO support.sync_leader(id, owner, expires) VALUES (1, '', NOW());
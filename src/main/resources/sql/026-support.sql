@@ -0,0 +1,16 @@
+-- Hash of the fields of an issue that are worth a synchronization : status, number of journals, attachments and assignee.
+-- Issues whose hash has not changed are not rewritten by the synchronization
+CREATE FUNCTION support.issue_content_hash(content JSONB) RETURNS VARCHAR AS $$
+	SELECT md5(concat_ws('|',
+		content#>>'{issue,status,id}',
+		CASE WHEN jsonb_typeof(content#>'{issue,journals}') = 'array'
+			THEN jsonb_array_length(content#>'{issue,journals}') ELSE 0 END,
+		(SELECT string_agg(a->>'id', ',' ORDER BY (a->>'id')::BIGINT)
+			FROM jsonb_array_elements(CASE WHEN jsonb_typeof(content#>'{issue,attachments}') = 'array'
+				THEN content#>'{issue,attachments}' ELSE '[]'::JSONB END) AS a),
+		content#>>'{issue,assigned_to,id}'));
+$$ LANGUAGE SQL IMMUTABLE;
+
+ALTER TABLE support.bug_tracker_issues ADD COLUMN content_hash VARCHAR(32);
+
+UPDATE support.bug_tracker_issues SET content_hash = support.issue_content_hash(content);
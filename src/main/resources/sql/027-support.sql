@@ -0,0 +1,52 @@
+-- Journals of bug tracker issues. Only journals that have not been received yet are inserted by the synchronization,
+-- and field content of bug_tracker_issues only keeps the header of the issue. Journals are inserted with ON CONFLICT : requires PostgreSQL 9.5
+CREATE TABLE support.bug_tracker_journals (
+	id BIGINT PRIMARY KEY,
+	issue_id BIGINT NOT NULL,
+	created_on TIMESTAMP,
+	content JSONB NOT NULL,
+	CONSTRAINT journal_issue_fk FOREIGN KEY(issue_id) REFERENCES support.bug_tracker_issues(id) ON UPDATE CASCADE ON DELETE CASCADE
+);
+
+CREATE INDEX bug_tracker_journals_issue_id_idx ON support.bug_tracker_journals (issue_id, id);
+
+-- Journals of a bug tracker issue
+CREATE FUNCTION support.issue_journals(content JSONB) RETURNS SETOF JSONB AS $$
+	SELECT j FROM jsonb_array_elements(CASE WHEN jsonb_typeof(content#>'{issue,journals}') = 'array'
+		THEN content#>'{issue,journals}' ELSE '[]'::JSONB END) AS j;
+$$ LANGUAGE SQL IMMUTABLE;
+
+-- Bug tracker issue without its journals
+CREATE FUNCTION support.issue_header(content JSONB) RETURNS JSONB AS $$
+	SELECT COALESCE(json_object_agg(e.key, CASE WHEN e.key = 'issue' AND jsonb_typeof(e.value) = 'object'
+		THEN (SELECT COALESCE(json_object_agg(f.key, f.value), '{}') FROM jsonb_each(e.value) AS f WHERE f.key <> 'journals')::JSONB
+		ELSE e.value END), '{}')::JSONB
+	FROM jsonb_each(content) AS e;
+$$ LANGUAGE SQL IMMUTABLE;
+
+INSERT INTO support.bug_tracker_journals (id, issue_id, created_on, content)
+SELECT DISTINCT ON ((j->>'id')::BIGINT) (j->>'id')::BIGINT, i.id, (j->>'created_on')::TIMESTAMPTZ AT TIME ZONE 'UTC', j
+FROM support.bug_tracker_issues AS i, support.issue_journals(i.content) AS j
+WHERE j->>'id' IS NOT NULL;
+
+-- Search vectors of issues are now built from their journals : the notes of a new journal are appended to the vector of its issue
+DROP TRIGGER issue_search_vector_trigger ON support.bug_tracker_issues;
+
+CREATE TRIGGER issue_search_vector_trigger
+AFTER INSERT ON support.bug_tracker_issues
+    FOR EACH ROW EXECUTE PROCEDURE support.update_issue_search_vector();
+
+UPDATE support.bug_tracker_issues SET content = support.issue_header(content);
+
+CREATE OR REPLACE FUNCTION support.update_journal_search_vector() RETURNS TRIGGER AS $$
+    BEGIN
+        UPDATE support.issues_search
+        SET search_vector = search_vector || to_tsvector('support.french_unaccent', coalesce(NEW.content->>'notes', ''))
+        WHERE issue_id = NEW.issue_id;
+        RETURN NULL;
+    END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER journal_search_vector_trigger
+AFTER INSERT ON support.bug_tracker_journals
+    FOR EACH ROW EXECUTE PROCEDURE support.update_journal_search_vector();
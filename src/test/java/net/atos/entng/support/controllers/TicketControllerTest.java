@@ -0,0 +1,48 @@
+/*
+ * Copyright © Région Nord Pas de Calais-Picardie,  Département 91, Région Aquitaine-Limousin-Poitou-Charentes, 2016.
+ *
+ * This file is part of OPEN ENT NG. OPEN ENT NG is a versatile ENT Project based on the JVM and ENT Core Project.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation (version 3 of the License).
+ *
+ * For the sake of explanation, any module that communicate over native
+ * Web protocols, such as HTTP, with OPEN ENT NG is outside the scope of this
+ * license and could be license under its own terms. This is merely considered
+ * normal use of OPEN ENT NG, and does not fall under the heading of "covered work".
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+package net.atos.entng.support.controllers;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class TicketControllerTest {
+
+	/**
+	 * Dates of the filters of the list of tickets are bound as timestamps : other values must be rejected beforehand
+	 */
+	@Test
+	public void testIsValidDate() {
+		assertTrue(TicketController.isValidDate("2016-01-02"));
+		assertTrue(TicketController.isValidDate("2016-01-02T10:00:00"));
+		assertTrue(TicketController.isValidDate("2016-01-02T10:00:00.123"));
+		assertTrue(TicketController.isValidDate("2016-01-02 10:00:00"));
+	}
+
+	@Test
+	public void testIsInvalidDate() {
+		assertFalse(TicketController.isValidDate("yesterday"));
+		assertFalse(TicketController.isValidDate("2016-13-02"));
+		assertFalse(TicketController.isValidDate("2016-01-02T10:61:00"));
+		assertFalse(TicketController.isValidDate("2016-01-02'; DROP TABLE support.tickets; --"));
+	}
+
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright © Région Nord Pas de Calais-Picardie,  Département 91, Région Aquitaine-Limousin-Poitou-Charentes, 2016.
+ *
+ * This file is part of OPEN ENT NG. OPEN ENT NG is a versatile ENT Project based on the JVM and ENT Core Project.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation (version 3 of the License).
+ *
+ * For the sake of explanation, any module that communicate over native
+ * Web protocols, such as HTTP, with OPEN ENT NG is outside the scope of this
+ * license and could be license under its own terms. This is merely considered
+ * normal use of OPEN ENT NG, and does not fall under the heading of "covered work".
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+package net.atos.entng.support.enums;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+import org.vertx.java.core.json.JsonObject;
+
+public class BugTrackerTest {
+
+	/**
+	 * An escalated issue that could not be fetched from the bug tracker is saved as an empty object
+	 */
+	@Test
+	public void testExtractFromIssueNotFetched() {
+		JsonObject issue = new JsonObject();
+
+		assertNull(BugTracker.REDMINE.extractUpdatedOnFromIssue(issue));
+		assertNull(BugTracker.REDMINE.extractStatusIdFromIssue(issue));
+		assertNull(BugTracker.REDMINE.extractClosedOnFromIssue(issue));
+	}
+
+	@Test
+	public void testExtractFromIssue() {
+		JsonObject issue = new JsonObject().putObject("issue", new JsonObject()
+				.putNumber("id", 2836)
+				.putObject("status", new JsonObject().putNumber("id", 5))
+				.putString("updated_on", "2016-03-01T10:15:00Z")
+				.putString("closed_on", "2016-03-01T10:15:00Z"));
+
+		assertEquals("2016-03-01T10:15:00Z", BugTracker.REDMINE.extractUpdatedOnFromIssue(issue));
+		assertEquals(5, BugTracker.REDMINE.extractStatusIdFromIssue(issue).intValue());
+		assertEquals("2016-03-01T10:15:00Z", BugTracker.REDMINE.extractClosedOnFromIssue(issue));
+	}
+
+}
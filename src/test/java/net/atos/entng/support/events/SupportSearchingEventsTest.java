@@ -0,0 +1,134 @@
+/*
+ * Copyright © Région Nord Pas de Calais-Picardie,  Département 91, Région Aquitaine-Limousin-Poitou-Charentes, 2016.
+ *
+ * This file is part of OPEN ENT NG. OPEN ENT NG is a versatile ENT Project based on the JVM and ENT Core Project.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation (version 3 of the License).
+ *
+ * For the sake of explanation, any module that communicate over native
+ * Web protocols, such as HTTP, with OPEN ENT NG is outside the scope of this
+ * license and could be license under its own terms. This is merely considered
+ * normal use of OPEN ENT NG, and does not fall under the heading of "covered work".
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+package net.atos.entng.support.events;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+import org.vertx.java.core.json.JsonArray;
+
+public class SupportSearchingEventsTest {
+
+	@Test
+	public void testIsTrigramSearch() {
+		assertTrue(SupportSearchingEvents.isTrigramSearch(new JsonArray().addString("escalade").addString("ent")));
+		assertFalse(SupportSearchingEvents.isTrigramSearch(new JsonArray().addString("escalade").addString("ticket")));
+	}
+
+	/**
+	 * Only an empty first page of a full-text search is replayed with the trigram index
+	 */
+	@Test
+	public void testIsTrigramFallback() {
+		assertTrue(SupportSearchingEvents.isTrigramFallback(false, 0, 0));
+		assertFalse(SupportSearchingEvents.isTrigramFallback(false, 0, 5));
+		assertFalse(SupportSearchingEvents.isTrigramFallback(false, 1, 0));
+		assertFalse(SupportSearchingEvents.isTrigramFallback(true, 0, 0));
+	}
+
+	@Test
+	public void testBuildFullTextSearchQuery() {
+		JsonArray values = new JsonArray();
+		String query = SupportSearchingEvents.buildSearchQuery(false, "user1", null,
+				new JsonArray().addString("escalade").addString("ticket"), 1, 10, null, values);
+
+		assertTrue(query.startsWith("WITH m AS (SELECT ticket_id, max(rank) AS rank FROM ("));
+		assertEquals(3, count(query, "plainto_tsquery('support.french_unaccent', ?)"));
+		assertTrue(query.contains(" INNER JOIN m ON t.id = m.ticket_id WHERE t.owner = ?"));
+		assertTrue(query.endsWith(" ORDER BY m.rank DESC, t.modified DESC LIMIT ? OFFSET ?"));
+		assertEquals(new JsonArray().addString("escalade ticket").addString("escalade ticket").addString("escalade ticket")
+				.addString("user1").addNumber(10).addNumber(10), values);
+	}
+
+	/**
+	 * One condition per word, with the expression of index tickets_trgm_idx. Wildcards of words are escaped
+	 */
+	@Test
+	public void testBuildTrigramSearchQuery() {
+		JsonArray values = new JsonArray();
+		String query = SupportSearchingEvents.buildSearchQuery(true, "user1", null,
+				new JsonArray().addString("ent").addString("10%"), 0, 10, null, values);
+
+		assertFalse(query.contains("WITH m"));
+		assertEquals(2, count(query, " AND support.immutable_unaccent(t.subject || ' ' || t.description)"
+				+ " ILIKE support.immutable_unaccent(?)"));
+		assertTrue(query.endsWith(" WHERE t.owner = ?"
+				+ " AND support.immutable_unaccent(t.subject || ' ' || t.description) ILIKE support.immutable_unaccent(?)"
+				+ " AND support.immutable_unaccent(t.subject || ' ' || t.description) ILIKE support.immutable_unaccent(?)"
+				+ " ORDER BY t.modified DESC LIMIT ? OFFSET ?"));
+		assertEquals(new JsonArray().addString("user1").addString("%ent%").addString("%10\\%%")
+				.addNumber(10).addNumber(0), values);
+	}
+
+	/**
+	 * Each school of a local administrator is searched in its own branch, so that index tickets_school_id_modified_idx
+	 * is used. Without cursor, each branch returns the rows of the previous pages too
+	 */
+	@Test
+	public void testBuildAdminSearchQuery() {
+		JsonArray values = new JsonArray();
+		String query = SupportSearchingEvents.buildSearchQuery(true, "user1", Arrays.asList("school1", "school2"),
+				new JsonArray().addString("ent"), 2, 10, null, values);
+
+		assertEquals(2, count(query, ") UNION ALL ("));
+		assertEquals(2, count(query, " WHERE t.school_id = ? AND support.immutable_unaccent("));
+		assertTrue(query.contains(" WHERE t.owner = ? AND t.school_id NOT IN (?,?) AND support.immutable_unaccent("));
+		assertEquals(3, count(query, " ORDER BY t.modified DESC, t.id DESC LIMIT ?)"));
+		assertTrue(query.endsWith(") AS b ORDER BY b.modified DESC, b.id DESC LIMIT ? OFFSET ?"));
+		assertEquals(new JsonArray()
+				.addString("school1").addString("%ent%").addNumber(30)
+				.addString("school2").addString("%ent%").addNumber(30)
+				.addString("user1").addString("school1").addString("school2").addString("%ent%").addNumber(30)
+				.addNumber(10).addNumber(20), values);
+	}
+
+	/**
+	 * With the cursor of the previous page, each branch starts after the cursor and returns one page at most
+	 */
+	@Test
+	public void testBuildAdminSearchQueryWithCursor() {
+		JsonArray values = new JsonArray();
+		SupportSearchingEvents.Cursor cursor = new SupportSearchingEvents.Cursor("2016-01-02T10:00:00.123", 42L);
+		String query = SupportSearchingEvents.buildSearchQuery(false, "user1", Arrays.asList("school1"),
+				new JsonArray().addString("escalade"), 2, 10, cursor, values);
+
+		assertTrue(query.startsWith("WITH m AS ("));
+		assertEquals(2, count(query, " INNER JOIN m ON t.id = m.ticket_id"));
+		assertEquals(2, count(query, " AND (t.modified, t.id) < (?::timestamp, ?) ORDER BY t.modified DESC, t.id DESC LIMIT ?"));
+		assertEquals(new JsonArray()
+				.addString("escalade").addString("escalade").addString("escalade")
+				.addString("school1").addString("2016-01-02T10:00:00.123").addNumber(42L).addNumber(10)
+				.addString("user1").addString("school1").addString("2016-01-02T10:00:00.123").addNumber(42L).addNumber(10)
+				.addNumber(10).addNumber(0), values);
+	}
+
+	private static int count(String query, String fragment) {
+		int count = 0;
+		for (int i = query.indexOf(fragment); i >= 0; i = query.indexOf(fragment, i + fragment.length())) {
+			count++;
+		}
+		return count;
+	}
+
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright © Région Nord Pas de Calais-Picardie,  Département 91, Région Aquitaine-Limousin-Poitou-Charentes, 2016.
+ *
+ * This file is part of OPEN ENT NG. OPEN ENT NG is a versatile ENT Project based on the JVM and ENT Core Project.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation (version 3 of the License).
+ *
+ * For the sake of explanation, any module that communicate over native
+ * Web protocols, such as HTTP, with OPEN ENT NG is outside the scope of this
+ * license and could be license under its own terms. This is merely considered
+ * normal use of OPEN ENT NG, and does not fall under the heading of "covered work".
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+package net.atos.entng.support.services.impl;
+
+import static org.junit.Assert.assertEquals;
+
+import net.atos.entng.support.services.impl.EscalationServiceRedmineImpl.SyncCursor;
+
+import org.junit.Test;
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+
+public class SyncCursorTest {
+
+	private static JsonArray issues(String... updatedOn) {
+		JsonArray issues = new JsonArray();
+		for (int i = 0; i < updatedOn.length; i++) {
+			issues.addObject(new JsonObject().putNumber("id", i).putString("updated_on", updatedOn[i]));
+		}
+		return issues;
+	}
+
+	/**
+	 * The next page starts at the last update date of the page, skipping the issues of the page updated on that date
+	 */
+	@Test
+	public void testAdvance() {
+		SyncCursor cursor = new SyncCursor("2016-03-01T00:00:00Z", null);
+
+		cursor.advance(issues("2016-03-01T10:00:00Z", "2016-03-01T11:00:00Z", "2016-03-01T11:00:00Z"));
+		assertEquals("2016-03-01T11:00:00Z", cursor.since);
+		assertEquals(2, cursor.offset);
+
+		cursor.advance(issues("2016-03-01T12:00:00Z"));
+		assertEquals("2016-03-01T12:00:00Z", cursor.since);
+		assertEquals(1, cursor.offset);
+	}
+
+	/**
+	 * When a whole page has been updated on the same date, the offset grows so that the cursor still moves forward
+	 */
+	@Test
+	public void testAdvanceOnSameUpdateDate() {
+		SyncCursor cursor = new SyncCursor("2016-03-01T00:00:00Z", null);
+
+		cursor.advance(issues("2016-03-01T10:00:00Z", "2016-03-01T10:00:00Z"));
+		assertEquals("2016-03-01T10:00:00Z", cursor.since);
+		assertEquals(2, cursor.offset);
+
+		cursor.advance(issues("2016-03-01T10:00:00Z", "2016-03-01T10:00:00Z"));
+		assertEquals("2016-03-01T10:00:00Z", cursor.since);
+		assertEquals(4, cursor.offset);
+
+		cursor.advance(issues("2016-03-01T10:00:00Z", "2016-03-01T10:30:00Z"));
+		assertEquals("2016-03-01T10:30:00Z", cursor.since);
+		assertEquals(1, cursor.offset);
+	}
+
+	@Test
+	public void testAdvanceFromStart() {
+		SyncCursor cursor = new SyncCursor(null, "1,2");
+
+		cursor.advance(issues("2016-03-01T10:00:00Z"));
+		assertEquals("2016-03-01T10:00:00Z", cursor.since);
+		assertEquals(1, cursor.offset);
+	}
+
+}
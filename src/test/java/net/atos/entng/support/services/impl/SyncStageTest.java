@@ -0,0 +1,153 @@
+/*
+ * Copyright © Région Nord Pas de Calais-Picardie,  Département 91, Région Aquitaine-Limousin-Poitou-Charentes, 2016.
+ *
+ * This file is part of OPEN ENT NG. OPEN ENT NG is a versatile ENT Project based on the JVM and ENT Core Project.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation (version 3 of the License).
+ *
+ * For the sake of explanation, any module that communicate over native
+ * Web protocols, such as HTTP, with OPEN ENT NG is outside the scope of this
+ * license and could be license under its own terms. This is merely considered
+ * normal use of OPEN ENT NG, and does not fall under the heading of "covered work".
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+package net.atos.entng.support.services.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.json.JsonObject;
+
+public class SyncStageTest {
+
+	// Timers of the fake vertx only fire when fireTimers is called
+	private final Map<Long, Handler<Long>> timers = new LinkedHashMap<>();
+	private long lastTimerId = 0;
+
+	private final Vertx vertx = (Vertx) Proxy.newProxyInstance(Vertx.class.getClassLoader(), new Class<?>[] {Vertx.class},
+			new InvocationHandler() {
+				@Override
+				@SuppressWarnings("unchecked")
+				public Object invoke(Object proxy, Method method, Object[] args) {
+					switch (method.getName()) {
+						case "setTimer":
+							timers.put(++lastTimerId, (Handler<Long>) args[1]);
+							return lastTimerId;
+						case "cancelTimer":
+							return timers.remove(args[0]) != null;
+						default:
+							throw new UnsupportedOperationException(method.getName());
+					}
+				}
+			});
+
+	private final List<Handler<Void>> running = new ArrayList<>();
+	private int completions = 0;
+
+	private final Handler<Handler<Void>> task = new Handler<Handler<Void>>() {
+		@Override
+		public void handle(Handler<Void> done) {
+			running.add(done);
+		}
+	};
+
+	private final Handler<Void> onComplete = new Handler<Void>() {
+		@Override
+		public void handle(Void v) {
+			completions++;
+		}
+	};
+
+	private void fireTimers() {
+		for (Map.Entry<Long, Handler<Long>> timer : new ArrayList<>(timers.entrySet())) {
+			timers.remove(timer.getKey());
+			timer.getValue().handle(timer.getKey());
+		}
+	}
+
+	@Test
+	public void testMaxInFlight() {
+		SyncStage stage = new SyncStage(vertx, "test", 2, 1000);
+		for (int i = 0; i < 3; i++) {
+			stage.submit(task, onComplete);
+		}
+		assertEquals(2, running.size());
+		JsonObject metrics = stage.getMetrics();
+		assertEquals(2, metrics.getInteger("in_flight").intValue());
+		assertEquals(1, metrics.getInteger("queued").intValue());
+		assertEquals(1, metrics.getInteger("max_queued").intValue());
+
+		running.get(0).handle(null);
+		assertEquals(1, completions);
+		assertEquals(3, running.size());
+
+		running.get(1).handle(null);
+		running.get(2).handle(null);
+		assertEquals(3, completions);
+		assertTrue(timers.isEmpty());
+		metrics = stage.getMetrics();
+		assertEquals(0, metrics.getInteger("in_flight").intValue());
+		assertEquals(3L, metrics.getLong("completed").longValue());
+		assertEquals(0L, metrics.getLong("timed_out").longValue());
+	}
+
+	/**
+	 * A task whose response is lost releases its slot when it times out, and is completed only once
+	 */
+	@Test
+	public void testTimeout() {
+		SyncStage stage = new SyncStage(vertx, "test", 1, 1000);
+		stage.submit(task, onComplete);
+		stage.submit(task, onComplete);
+		assertEquals(1, running.size());
+
+		fireTimers();
+		assertEquals(1, completions);
+		assertEquals(2, running.size());
+
+		// late response of the timed out task
+		running.get(0).handle(null);
+		assertEquals(1, completions);
+
+		running.get(1).handle(null);
+		assertEquals(2, completions);
+		JsonObject metrics = stage.getMetrics();
+		assertEquals(0, metrics.getInteger("in_flight").intValue());
+		assertEquals(2L, metrics.getLong("completed").longValue());
+		assertEquals(1L, metrics.getLong("timed_out").longValue());
+	}
+
+	@Test
+	public void testFailingTask() {
+		SyncStage stage = new SyncStage(vertx, "test", 1, 1000);
+		stage.submit(new Handler<Handler<Void>>() {
+			@Override
+			public void handle(Handler<Void> done) {
+				throw new IllegalStateException("test");
+			}
+		}, onComplete);
+		stage.submit(task, onComplete);
+
+		assertEquals(1, completions);
+		assertEquals(1, running.size());
+		assertEquals(1, timers.size());
+	}
+
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright © Région Nord Pas de Calais-Picardie,  Département 91, Région Aquitaine-Limousin-Poitou-Charentes, 2016.
+ *
+ * This file is part of OPEN ENT NG. OPEN ENT NG is a versatile ENT Project based on the JVM and ENT Core Project.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation (version 3 of the License).
+ *
+ * For the sake of explanation, any module that communicate over native
+ * Web protocols, such as HTTP, with OPEN ENT NG is outside the scope of this
+ * license and could be license under its own terms. This is merely considered
+ * normal use of OPEN ENT NG, and does not fall under the heading of "covered work".
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+package net.atos.entng.support.services.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.entcore.common.user.DefaultFunctions;
+import org.entcore.common.user.UserInfos;
+import org.junit.Test;
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+
+public class TicketServiceSqlImplTest {
+
+	@Test
+	public void testAppendListScopeOfLocalAdministrator() {
+		UserInfos.Function adminLocal = new UserInfos.Function();
+		adminLocal.setScope(Arrays.asList("school1", "school2"));
+		Map<String, UserInfos.Function> functions = new HashMap<>();
+		functions.put(DefaultFunctions.ADMIN_LOCAL, adminLocal);
+		UserInfos user = new UserInfos();
+		user.setUserId("user1");
+		user.setFunctions(functions);
+		StringBuilder query = new StringBuilder();
+		JsonArray values = new JsonArray();
+
+		assertTrue(TicketServiceSqlImpl.appendListScope(query, values, user));
+		assertEquals(" WHERE (t.school_id IN (?,?) OR t.owner = ?)", query.toString());
+		assertEquals(new JsonArray().addString("school1").addString("school2").addString("user1"), values);
+	}
+
+	@Test
+	public void testAppendListScopeOfSuperAdministrator() {
+		UserInfos user = new UserInfos();
+		user.setUserId("user1");
+		user.setFunctions(new HashMap<String, UserInfos.Function>());
+		user.setStructures(Collections.singletonList("school1"));
+		StringBuilder query = new StringBuilder();
+		JsonArray values = new JsonArray();
+
+		assertTrue(TicketServiceSqlImpl.appendListScope(query, values, user));
+		assertEquals(" WHERE t.school_id IN (?)", query.toString());
+		assertEquals(new JsonArray().addString("school1"), values);
+	}
+
+	@Test
+	public void testAppendListFilters() {
+		JsonObject filters = new JsonObject()
+				.putArray("status", new JsonArray().addNumber(1).addNumber(2))
+				.putArray("school_id", new JsonArray().addString("school1"))
+				.putString("from", "2016-01-01")
+				.putString("to", "2016-02-01");
+		StringBuilder query = new StringBuilder();
+		JsonArray values = new JsonArray();
+
+		assertTrue(TicketServiceSqlImpl.appendListFilters(query, values, filters, false));
+		assertEquals(" WHERE t.status IN (?,?) AND t.school_id IN (?)"
+				+ " AND t.modified >= ?::timestamp AND t.modified < ?::timestamp", query.toString());
+		assertEquals(new JsonArray().addNumber(1).addNumber(2).addString("school1")
+				.addString("2016-01-01").addString("2016-02-01"), values);
+	}
+
+	@Test
+	public void testAppendListFiltersAfterScope() {
+		StringBuilder query = new StringBuilder(" WHERE t.owner = ?");
+		JsonArray values = new JsonArray().addString("user1");
+
+		assertTrue(TicketServiceSqlImpl.appendListFilters(query, values,
+				new JsonObject().putArray("category", new JsonArray().addString("app1")), true));
+		assertEquals(" WHERE t.owner = ? AND t.category IN (?)", query.toString());
+		assertEquals(new JsonArray().addString("user1").addString("app1"), values);
+	}
+
+	@Test
+	public void testAppendNoListFilters() {
+		StringBuilder query = new StringBuilder();
+		JsonArray values = new JsonArray();
+
+		assertFalse(TicketServiceSqlImpl.appendListFilters(query, values, new JsonObject(), false));
+		assertFalse(TicketServiceSqlImpl.appendListFilters(query, values, null, false));
+		assertEquals("", query.toString());
+		assertEquals(0, values.size());
+	}
+
+	/**
+	 * The next page starts after the last row of the previous page, in the order of index (modified, id)
+	 */
+	@Test
+	public void testAppendListPageWithCursor() {
+		JsonObject filters = new JsonObject()
+				.putString("cursor_modified", "2016-01-02T10:00:00.123")
+				.putNumber("cursor_id", 42L)
+				.putNumber("limit", 25);
+		StringBuilder query = new StringBuilder(" WHERE t.owner = ?");
+		JsonArray values = new JsonArray().addString("user1");
+
+		TicketServiceSqlImpl.appendListPage(query, values, filters, true);
+		assertEquals(" WHERE t.owner = ? AND (t.modified, t.id) < (?::timestamp, ?)"
+				+ " ORDER BY t.modified DESC, t.id DESC LIMIT ?", query.toString());
+		assertEquals(new JsonArray().addString("user1").addString("2016-01-02T10:00:00.123")
+				.addNumber(42L).addNumber(25), values);
+	}
+
+	@Test
+	public void testAppendFirstListPage() {
+		StringBuilder query = new StringBuilder();
+		JsonArray values = new JsonArray();
+
+		TicketServiceSqlImpl.appendListPage(query, values, new JsonObject().putNumber("limit", 25), false);
+		assertEquals(" ORDER BY t.modified DESC, t.id DESC LIMIT ?", query.toString());
+		assertEquals(new JsonArray().addNumber(25), values);
+	}
+
+	/**
+	 * Journals stored in their own table are put back into the content of the issue, as sent by the bug tracker
+	 */
+	@Test
+	public void testMergeJournals() {
+		JsonObject issue = new JsonObject()
+				.putNumber("id", 2836)
+				.putString("content", new JsonObject().putObject("issue", new JsonObject().putNumber("id", 2836)).encode())
+				.putString("journals", new JsonArray().addObject(new JsonObject().putNumber("id", 1)).encode());
+
+		TicketServiceSqlImpl.mergeJournals(issue);
+		assertFalse(issue.containsField("journals"));
+		JsonArray journals = new JsonObject(issue.getString("content")).getObject("issue").getArray("journals");
+		assertEquals(1, journals.size());
+		assertEquals(1, ((JsonObject) journals.get(0)).getInteger("id").intValue());
+	}
+
+	/**
+	 * An escalated issue that could not be fetched from the bug tracker is saved as an empty object
+	 */
+	@Test
+	public void testMergeJournalsOfIssueNotFetched() {
+		JsonObject issue = new JsonObject()
+				.putNumber("id", 2836)
+				.putObject("content", new JsonObject())
+				.putArray("journals", new JsonArray());
+
+		TicketServiceSqlImpl.mergeJournals(issue);
+		assertFalse(issue.containsField("journals"));
+		assertEquals(0, issue.getObject("content").size());
+	}
+
+}